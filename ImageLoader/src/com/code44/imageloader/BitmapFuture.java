@@ -0,0 +1,148 @@
+package com.code44.imageloader;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.graphics.Bitmap;
+
+import com.code44.imageloader.ImageLoader.GetBitmapTask;
+import com.code44.imageloader.ImageLoader.LoadCallback;
+import com.code44.imageloader.info.BitmapInfo;
+
+/**
+ * Created by {@link ImageLoader#loadAsync(BitmapInfo, ImageSettings)}. Result is {@code null} if image failed to load. Getting result of cancelled future
+ * throws {@link CancellationException}.
+ * <p>
+ * <b>Important: </b>Returned bitmap might be shared with memory cache and views, so don't recycle or modify it.
+ * </p>
+ * 
+ * @author Mantas Varnagiris
+ */
+public class BitmapFuture implements Future<Bitmap>, LoadCallback
+{
+	protected final ImageInfo			imageInfo;
+	protected final CountDownLatch		latch;
+	protected volatile GetBitmapTask	task;
+	protected volatile Bitmap			bitmap;
+	protected volatile boolean			isCancelled;
+	protected LoadCallback				callback;
+
+	protected BitmapFuture(ImageInfo imageInfo, LoadCallback callback)
+	{
+		this.imageInfo = imageInfo;
+		this.latch = new CountDownLatch(1);
+		this.task = null;
+		this.bitmap = null;
+		this.isCancelled = false;
+		this.callback = callback;
+	}
+
+	// Future
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Detaches from loading. Loading itself is cancelled only if nobody else needs the same image.
+	 * 
+	 * @param mayInterruptIfRunning
+	 *            Ignored. Download and decode are aborted cooperatively.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning)
+	{
+		synchronized (this)
+		{
+			if (isDone())
+				return false;
+
+			isCancelled = true;
+			callback = null;
+		}
+
+		final GetBitmapTask task = this.task;
+		if (task != null)
+			task.removeSubscriber(imageInfo);
+
+		latch.countDown();
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled()
+	{
+		return isCancelled;
+	}
+
+	@Override
+	public boolean isDone()
+	{
+		return latch.getCount() == 0;
+	}
+
+	@Override
+	public Bitmap get() throws InterruptedException, ExecutionException
+	{
+		latch.await();
+		return getResult();
+	}
+
+	@Override
+	public Bitmap get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+	{
+		if (!latch.await(timeout, unit))
+			throw new TimeoutException();
+		return getResult();
+	}
+
+	// LoadCallback
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	@Override
+	public void onLoaded(ImageInfo imageInfo, Bitmap bitmap, boolean isSuccessful)
+	{
+		final LoadCallback callback;
+		synchronized (this)
+		{
+			if (isDone())
+				return;
+
+			this.bitmap = bitmap;
+			callback = this.callback;
+			latch.countDown();
+		}
+
+		if (callback != null)
+			callback.onLoaded(imageInfo, bitmap, isSuccessful);
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * @return {@link ImageInfo} that was used to start loading.
+	 */
+	public ImageInfo getImageInfo()
+	{
+		return imageInfo;
+	}
+
+	// Protected methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	protected Bitmap getResult()
+	{
+		if (isCancelled)
+			throw new CancellationException();
+		return bitmap;
+	}
+
+	protected void setTask(GetBitmapTask task)
+	{
+		this.task = task;
+		if (isCancelled && task != null)
+			task.removeSubscriber(imageInfo);
+	}
+}
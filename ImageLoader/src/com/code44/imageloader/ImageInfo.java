@@ -4,11 +4,16 @@ import java.lang.ref.WeakReference;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.view.View;
 import android.widget.ImageView;
 
 import com.code44.imageloader.ImageLoader.GetBitmapTask;
+import com.code44.imageloader.ImageSettings.Priority;
+import com.code44.imageloader.cache.ImageCache;
+import com.code44.imageloader.getter.BitmapGetter;
 import com.code44.imageloader.getter.data.BitmapData;
+import com.code44.imageloader.getter.parser.BitmapParser;
 import com.code44.imageloader.info.BitmapInfo;
 
 /**
@@ -24,10 +29,15 @@ import com.code44.imageloader.info.BitmapInfo;
 public class ImageInfo
 {
 	protected final WeakReference<View>	viewReference;
-	protected final BitmapInfo			bitmapInfo;
-	protected final ImageSettings		imageSettings;
-	protected final boolean				isImageView;
 	protected final boolean				isLoggingOn;
+	protected BitmapInfo				bitmapInfo;
+	protected ImageSettings				imageSettings;
+	protected boolean					isImageView;
+	protected Priority					priority;
+	protected volatile boolean			isCancelled;
+	protected OnCancelListener			onCancelListener;
+	protected int						sourceWidth;
+	protected int						sourceHeight;
 
 	/**
 	 * Constructor
@@ -44,12 +54,38 @@ public class ImageInfo
 	 *            Flag to turn on/off logging.
 	 */
 	public ImageInfo(View view, BitmapInfo bitmapInfo, ImageSettings imageSettings, boolean isImageView, boolean isLoggingOn)
+	{
+		this(view, bitmapInfo, imageSettings, isImageView, isLoggingOn, Priority.NORMAL);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param imageView
+	 *            {@link ImageView} in which to load bitmap.
+	 * @param bitmapInfo
+	 *            Information about how to load a bitmap.
+	 * @param imageSettings
+	 *            Various settings that change behavior how bitmap is loaded.
+	 * @param isLoggingOn
+	 *            Flag that tells how to set an image.
+	 * @param isLoggingOn
+	 *            Flag to turn on/off logging.
+	 * @param priority
+	 *            Priority used when scheduling work for this image.
+	 */
+	public ImageInfo(View view, BitmapInfo bitmapInfo, ImageSettings imageSettings, boolean isImageView, boolean isLoggingOn, Priority priority)
 	{
 		this.viewReference = new WeakReference<View>(view);
 		this.bitmapInfo = bitmapInfo;
 		this.imageSettings = imageSettings;
 		this.isImageView = isImageView;
 		this.isLoggingOn = isLoggingOn;
+		this.priority = priority;
+		this.isCancelled = false;
+		this.onCancelListener = null;
+		this.sourceWidth = 0;
+		this.sourceHeight = 0;
 	}
 
 	// Object
@@ -137,6 +173,45 @@ public class ImageInfo
 		return isLoggingOn;
 	}
 
+	/**
+	 * @return {@link Priority} used when scheduling work for this image.
+	 */
+	public Priority getPriority()
+	{
+		return priority;
+	}
+
+	/**
+	 * Remembers size of the original image that bitmap was made from, so {@link ImageCache} knows whether bitmap was scaled up. Called by
+	 * {@link BitmapParser} after decoding.
+	 * 
+	 * @param sourceWidth
+	 *            Width of original image.
+	 * @param sourceHeight
+	 *            Height of original image.
+	 */
+	public void setSourceSize(int sourceWidth, int sourceHeight)
+	{
+		this.sourceWidth = sourceWidth;
+		this.sourceHeight = sourceHeight;
+	}
+
+	/**
+	 * @return Width of original image or 0 if it's not known (eg. bitmap was read from file cache).
+	 */
+	public int getSourceWidth()
+	{
+		return sourceWidth;
+	}
+
+	/**
+	 * @return Height of original image or 0 if it's not known (eg. bitmap was read from file cache).
+	 */
+	public int getSourceHeight()
+	{
+		return sourceHeight;
+	}
+
 	/**
 	 * Wrapper method. Loads {@link BitmapData} from {@link BitmapInfo}.
 	 * 
@@ -164,7 +239,51 @@ public class ImageInfo
 	}
 
 	/**
-	 * Cancels task for this {@link ImageView} if {@link ImageInfo} is different
+	 * Marks work for this image as cancelled and notifies {@link OnCancelListener} if there is one. {@link BitmapGetter} and {@link BitmapParser} should
+	 * check {@link #isCancelled()} during long operations.
+	 */
+	public void cancel()
+	{
+		final OnCancelListener listener;
+		synchronized (this)
+		{
+			isCancelled = true;
+			listener = onCancelListener;
+		}
+
+		if (listener != null)
+			listener.onCancel();
+	}
+
+	/**
+	 * @return {@code true} if work for this image was cancelled; {@code false} otherwise.
+	 */
+	public boolean isCancelled()
+	{
+		return isCancelled;
+	}
+
+	/**
+	 * Use this to abort blocking operations (eg. {@link BitmapFactory.Options#requestCancelDecode()}) when work is cancelled from another thread. If work is
+	 * already cancelled, listener is called immediately.
+	 * 
+	 * @param listener
+	 *            Listener or {@code null} to remove current one.
+	 */
+	public void setOnCancelListener(OnCancelListener listener)
+	{
+		synchronized (this)
+		{
+			onCancelListener = listener;
+			if (!isCancelled || listener == null)
+				return;
+		}
+
+		listener.onCancel();
+	}
+
+	/**
+	 * Detaches this {@link ImageView} from its task if {@link ImageInfo} is different. Task itself is cancelled only if no other views are waiting for it.
 	 * 
 	 * @return {@code true} if {@link ImageView} doesn't have a task or task is working for different {@link ImageInfo}; {@code false} otherwise.
 	 */
@@ -176,7 +295,7 @@ public class ImageInfo
 		{
 			final ImageInfo imageInfo = task.getImageInfo();
 			if (!imageInfo.equals(this))
-				task.cancel(true);
+				task.removeSubscriber(getView());
 			else
 				return false;
 		}
@@ -203,7 +322,7 @@ public class ImageInfo
 	 */
 	public String getCacheName()
 	{
-		return getCacheName(imageSettings.getSettingsName(), bitmapInfo.getBitmapName());
+		return bitmapInfo.getCacheName(imageSettings);
 	}
 
 	/**
@@ -226,6 +345,42 @@ public class ImageInfo
 		return bitmapInfo.getBitmapName();
 	}
 
+	/**
+	 * @return Name used for this image in file cache by older versions or {@code null}. See {@link BitmapInfo#getLegacyBitmapName()}.
+	 */
+	public String getLegacyBitmapName()
+	{
+		return bitmapInfo.getLegacyBitmapName();
+	}
+
+	// Protected methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Points this info at another image for the same view, so memory cache hits don't allocate a new info. Only for infos that {@link ImageLoader} created
+	 * on main thread and never gave to a task or listener.
+	 */
+	protected void reuse(BitmapInfo bitmapInfo, ImageSettings imageSettings, boolean isImageView, Priority priority)
+	{
+		this.bitmapInfo = bitmapInfo;
+		this.imageSettings = imageSettings;
+		this.isImageView = isImageView;
+		this.priority = priority;
+		this.sourceWidth = 0;
+		this.sourceHeight = 0;
+	}
+
+	// OnCancelListener
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	public static interface OnCancelListener
+	{
+		/**
+		 * Called on the thread that cancelled the work.
+		 */
+		public void onCancel();
+	}
+
 	// Static methods
 	// ------------------------------------------------------------------------------------------------------------------------------------
 
@@ -1,19 +1,35 @@
 package com.code44.imageloader;
 
 import java.io.File;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
-import android.os.AsyncTask;
+import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.os.Looper;
 import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
 
+import com.code44.imageloader.ImageSettings.Priority;
 import com.code44.imageloader.cache.ImageCache;
+import com.code44.imageloader.executor.LoaderExecutor;
+import com.code44.imageloader.executor.LoaderExecutor.Prioritized;
+import com.code44.imageloader.executor.LoaderExecutor.Stage;
 import com.code44.imageloader.getter.data.BitmapData;
 import com.code44.imageloader.info.BitmapInfo;
 import com.code44.imageloader.processor.ImageProcessor;
@@ -25,15 +41,43 @@ import com.code44.imageloader.processor.ImageProcessor;
  */
 public class ImageLoader
 {
-	private static final boolean	SUPPORTS_JELLYBEAN	= android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.JELLY_BEAN;
-	private static final boolean	SUPPORTS_HONEYCOMB	= android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.HONEYCOMB;
+	public enum PrefetchMode
+	{
+		/** Image is loaded, processed and put to all caches that are enabled in {@link ImageSettings}. */
+		MEMORY,
+
+		/** Image is loaded and processed to file cache. Memory cache is not touched. Fails without loading if {@link ImageSettings#isUseFileCache()} is off. */
+		PROCESSED_FILE,
+
+		/** Only original is stored in file cache. Image is never decoded. */
+		ORIGINAL_FILE
+	}
+
+	private static final boolean	SUPPORTS_HONEYCOMB_MR1	= android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.HONEYCOMB_MR1;
+	private static final boolean	SUPPORTS_JELLYBEAN		= android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.JELLY_BEAN;
+
+	public static final String		TAG						= "ImageLoader";
+
+	/** Tasks that are currently loading, mapped by {@link ImageInfo#getCacheName()}. Shared between all {@link ImageLoader} instances. */
+	protected static final Map<String, GetBitmapTask>	RUNNING_TASKS		= new HashMap<String, GetBitmapTask>();
+
+	/** Tasks that are currently fetching original, mapped by {@link ImageInfo#getBitmapName()}. Other sizes of the same image wait for them. */
+	protected static final Map<String, GetBitmapTask>	RUNNING_FETCHES		= new HashMap<String, GetBitmapTask>();
 
-	public static final String		TAG					= "ImageLoader";
+	/** Increases every time a task gets new subscriber. Used to load newest requests first. */
+	protected static final AtomicLong					SEQUENCE			= new AtomicLong();
+
+	/** Bitmaps that views are showing. Used only on main thread. */
+	protected static final Map<View, PinnedView>		PINNED_VIEWS		= new WeakHashMap<View, PinnedView>();
+
+	/** Views that were garbage collected while showing pinned bitmap. */
+	protected static final ReferenceQueue<View>			COLLECTED_VIEWS		= new ReferenceQueue<View>();
 
 	protected final Context			context;
 	protected final ImageCache		imageCache;
 	protected final LoaderSettings	loaderSettings;
 	protected final ImageSettings	defaultImageSettings;
+	protected final LoaderExecutor	executor;
 	protected ImageLoaderListener	listener;
 
 	// Constructors
@@ -78,6 +122,7 @@ public class ImageLoader
 		this.imageCache = ImageCache.getDefault(context);
 		this.loaderSettings = loaderSettings != null ? loaderSettings : new LoaderSettings();
 		this.defaultImageSettings = defaultImageSettings != null ? defaultImageSettings : new ImageSettings();
+		this.executor = LoaderExecutor.getDefault(this.loaderSettings);
 	}
 
 	// Public methods
@@ -128,9 +173,25 @@ public class ImageLoader
 	 * @param isImageView
 	 *            If {@code true}, then image will be set as for image view, else - background value will be set.
 	 */
+	public void loadImage(final View view, final BitmapInfo bitmapInfo, ImageSettings imageSettings, boolean isImageView)
+	{
+		loadImage(view, bitmapInfo, imageSettings, isImageView, null);
+	}
+
+	/**
+	 * Use this to load image or background with specific priority.
+	 * 
+	 * @param view
+	 * @param bitmapInfo
+	 * @param imageSettings
+	 * @param isImageView
+	 *            If {@code true}, then image will be set as for image view, else - background value will be set.
+	 * @param priority
+	 *            Priority for this call. If {@code null}, priority from {@link ImageSettings} is used or {@link Priority#NORMAL} if it's not set.
+	 */
 	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
 	@SuppressWarnings("deprecation")
-	public void loadImage(final View view, final BitmapInfo bitmapInfo, ImageSettings imageSettings, boolean isImageView)
+	public void loadImage(final View view, final BitmapInfo bitmapInfo, ImageSettings imageSettings, boolean isImageView, Priority priority)
 	{
 		final boolean isLoggingOn = BuildConfig.DEBUG && loaderSettings.isLoggingOn();
 
@@ -145,6 +206,7 @@ public class ImageLoader
 				Log.w(TAG, "ImageView or BitmapInfo is null. Loading will not start.");
 			if (view != null)
 			{
+				releaseImage(view);
 				if (isImageView)
 				{
 					((ImageView) view).setImageDrawable(imageSettings.getErrorDrawable());
@@ -166,6 +228,7 @@ public class ImageLoader
 			if (isLoggingOn)
 				Log.w(TAG, "BitmapInfo check failed. Setting error drawable. [" + bitmapInfo.toString() + "]");
 
+			releaseImage(view);
 			if (isImageView)
 			{
 				((ImageView) view).setImageDrawable(imageSettings.getErrorDrawable());
@@ -180,29 +243,59 @@ public class ImageLoader
 			return;
 		}
 
-		// Create ImageInfo
-		final ImageInfo imageInfo = new ImageInfo(view, bitmapInfo, imageSettings, isImageView, loaderSettings.isLoggingOn());
-
-		// Try to get bitmap from memory cache
+		// Try to get bitmap from memory cache. Cache name is memoized, so nothing is allocated until we know it's a miss or view needs a new image.
 		Bitmap bitmap = null;
-		if (imageInfo.getImageSettings().isUseMemoryCache())
+		if (imageSettings.isUseMemoryCache())
 		{
-			bitmap = imageCache.getFromMemory(imageInfo);
-			if (bitmap != null)
+			final String cacheName = bitmapInfo.getCacheName(imageSettings);
+			bitmap = imageCache.getFromMemory(cacheName, imageSettings.getMemoryPartition());
+			if (bitmap != null && isShowing(view, bitmap))
 			{
 				if (isLoggingOn)
-					Log.i(TAG, "Bitmap found in memory cache. [" + imageInfo.toString() + "]");
-				setImage(view, imageInfo, bitmap);
+					Log.i(TAG, "Bitmap found in memory cache and is already shown. [" + bitmapInfo.toString() + "]");
+				if (listener != null)
+				{
+					final PinnedView pinnedView = PINNED_VIEWS.get(view);
+					pinnedView.isImageInfoOwned = false;
+					imageCache.markShared(pinnedView.imageInfo, bitmap);
+					listener.onBitmapLoaded(view, pinnedView.imageInfo, bitmap);
+				}
 				return;
 			}
+
+			// Bitmap that was evicted after it was found might already be reused by BitmapPool, so it's loaded again
+			if (bitmap != null && !imageCache.acquireIfInMemory(cacheName, imageSettings.getMemoryPartition(), bitmap))
+				bitmap = null;
+		}
+
+		if (bitmap != null)
+		{
+			if (isLoggingOn)
+				Log.i(TAG, "Bitmap found in memory cache. [" + bitmapInfo.toString() + "]");
+
+			// View might still be waiting for an image it was bound to before
+			final GetBitmapTask oldTask = (GetBitmapTask) view.getTag();
+			if (oldTask != null)
+			{
+				view.setTag(null);
+				oldTask.removeSubscriber(view);
+			}
+
+			setCachedImage(view, bitmapInfo, imageSettings, isImageView, getPriority(imageSettings, priority, Priority.NORMAL), bitmap);
+			return;
 		}
 
+		// Create ImageInfo
+		final ImageInfo imageInfo = new ImageInfo(view, bitmapInfo, imageSettings, isImageView, loaderSettings.isLoggingOn(), getPriority(imageSettings,
+				priority, Priority.NORMAL));
+
 		// If bitmap was not found in cache and same work is not already running - load it
 		if (imageInfo.cancelPotentialWork())
 		{
 			// Set loading drawable if necessary
 			if (bitmap == null)
 			{
+				releaseImage(view);
 				if (isImageView)
 				{
 					((ImageView) view).setImageDrawable(imageSettings.getLoadingDrawable());
@@ -216,20 +309,8 @@ public class ImageLoader
 				}
 			}
 
-			try
-			{
-				final GetBitmapTask task = new GetBitmapTask(imageInfo);
-				view.setTag(task);
-				if (SUPPORTS_HONEYCOMB)
-					task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void) null);
-				else
-					task.execute();
-			}
-			catch (RejectedExecutionException e)
-			{
-				if (isLoggingOn)
-					Log.e(TAG, "Failed to start loading. [" + imageInfo.toString() + "]", e);
-			}
+			// View is tagged with the task before work starts, so stale checks never see it untagged
+			startLoading(imageInfo);
 		}
 	}
 
@@ -238,11 +319,36 @@ public class ImageLoader
 	 * 
 	 * @param bitmapInfo
 	 * @param imageSettings
-	 * @param isImageView
-	 *            If {@code true}, then image will be set as for image view, else - background value will be set.
 	 */
-	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
 	public void preCacheImage(final BitmapInfo bitmapInfo, ImageSettings imageSettings)
+	{
+		preCacheImage(bitmapInfo, imageSettings, null);
+	}
+
+	/**
+	 * Use this to pre-cache images with specific priority.
+	 * 
+	 * @param bitmapInfo
+	 * @param imageSettings
+	 * @param priority
+	 *            Priority for this call. If {@code null}, priority from {@link ImageSettings} is used or {@link Priority#LOW} if it's not set.
+	 */
+	public void preCacheImage(final BitmapInfo bitmapInfo, ImageSettings imageSettings, Priority priority)
+	{
+		preCacheImage(bitmapInfo, imageSettings, priority, PrefetchMode.MEMORY);
+	}
+
+	/**
+	 * Use this to pre-cache images without keeping them in memory. {@link PrefetchMode#ORIGINAL_FILE} never allocates a {@link Bitmap}.
+	 * 
+	 * @param bitmapInfo
+	 * @param imageSettings
+	 * @param priority
+	 *            Priority for this call. If {@code null}, priority from {@link ImageSettings} is used or {@link Priority#LOW} if it's not set.
+	 * @param prefetchMode
+	 *            Where image should end up.
+	 */
+	public void preCacheImage(final BitmapInfo bitmapInfo, ImageSettings imageSettings, Priority priority, PrefetchMode prefetchMode)
 	{
 		final boolean isLoggingOn = BuildConfig.DEBUG && loaderSettings.isLoggingOn();
 
@@ -267,34 +373,217 @@ public class ImageLoader
 		}
 
 		// Create ImageInfo
-		final ImageInfo imageInfo = new ImageInfo(null, bitmapInfo, imageSettings, false, loaderSettings.isLoggingOn());
+		final ImageInfo imageInfo = new ImageInfo(null, bitmapInfo, imageSettings, false, loaderSettings.isLoggingOn(), getPriority(imageSettings, priority,
+				Priority.LOW));
+
+		// Skip while system is low on memory. Originals are only downloaded, so they don't need memory.
+		if (prefetchMode != PrefetchMode.ORIGINAL_FILE && imageCache.isPrefetchPaused())
+		{
+			if (isLoggingOn)
+				Log.i(TAG, "Low on memory. Pre-caching skipped. [" + imageInfo.toString() + "]");
+			return;
+		}
 
 		// Try to get bitmap from memory cache
-		Bitmap bitmap = null;
-		if (imageInfo.getImageSettings().isUseMemoryCache())
+		if (prefetchMode == PrefetchMode.MEMORY && imageInfo.getImageSettings().isUseMemoryCache() && imageCache.isInMemory(imageInfo))
 		{
-			bitmap = imageCache.getFromMemory(imageInfo);
-			if (bitmap != null)
+			if (isLoggingOn)
+				Log.i(TAG, "Bitmap found in memory cache. [" + imageInfo.toString() + "]");
+			return;
+		}
+
+		startLoading(imageInfo, prefetchMode, null);
+	}
+
+	/**
+	 * Stops dispatching new download and decode work, for example while list is flinging. Images that are in memory cache are still set immediately. Pause
+	 * is shared by all {@link ImageLoader} instances.
+	 */
+	public void pause()
+	{
+		executor.pause();
+		if (BuildConfig.DEBUG && loaderSettings.isLoggingOn())
+			Log.i(TAG, "Loading paused.");
+	}
+
+	/**
+	 * Resumes work that was held back since {@link #pause()}.
+	 */
+	public void resume()
+	{
+		executor.resume();
+		if (BuildConfig.DEBUG && loaderSettings.isLoggingOn())
+			Log.i(TAG, "Loading resumed.");
+	}
+
+	public boolean isPaused()
+	{
+		return executor.isPaused();
+	}
+
+	/**
+	 * @param stage
+	 *            Stage before which requests were dropped.
+	 * @return Number of requests that were dropped before given stage, because all views that needed them were recycled. Shared by all {@link ImageLoader}
+	 *         instances.
+	 */
+	public int getDroppedCount(Stage stage)
+	{
+		return executor.getDroppedCount(stage);
+	}
+
+	/**
+	 * Use this to pre-cache a batch of images, for example the next page of a gallery. Images that are already in memory or processed file cache are skipped
+	 * without decoding. No more than {@link LoaderSettings#getPrefetchConcurrency()} images of the batch are loaded at the same time.
+	 * 
+	 * @param bitmapInfos
+	 *            Images to pre-cache.
+	 * @param imageSettings
+	 * @param listener
+	 *            Listener for progress. Can be {@code null}.
+	 * @return {@link PrefetchBatch} that can be used to cancel the whole batch.
+	 */
+	public PrefetchBatch preCacheImages(Collection<? extends BitmapInfo> bitmapInfos, ImageSettings imageSettings, PrefetchListener listener)
+	{
+		return preCacheImages(bitmapInfos, imageSettings, PrefetchMode.MEMORY, listener);
+	}
+
+	/**
+	 * Same as {@link #preCacheImages(Collection, ImageSettings, PrefetchListener)}, but allows to pre-cache images only to file cache.
+	 * 
+	 * @param bitmapInfos
+	 *            Images to pre-cache.
+	 * @param imageSettings
+	 * @param prefetchMode
+	 *            Where images should end up.
+	 * @param listener
+	 *            Listener for progress. Can be {@code null}.
+	 * @return {@link PrefetchBatch} that can be used to cancel the whole batch.
+	 */
+	public PrefetchBatch preCacheImages(Collection<? extends BitmapInfo> bitmapInfos, ImageSettings imageSettings, PrefetchMode prefetchMode,
+			PrefetchListener listener)
+	{
+		// Use default settings if they are not provided
+		if (imageSettings == null)
+			imageSettings = defaultImageSettings;
+
+		final List<ImageInfo> imageInfos = new ArrayList<ImageInfo>(bitmapInfos.size());
+		final Priority priority = getPriority(imageSettings, null, Priority.LOW);
+		for (BitmapInfo bitmapInfo : bitmapInfos)
+		{
+			if (bitmapInfo == null || !bitmapInfo.checkInfo())
+			{
+				if (BuildConfig.DEBUG && loaderSettings.isLoggingOn())
+					Log.w(TAG, "BitmapInfo is null or check failed. Skipping it in batch.");
+				continue;
+			}
+			imageInfos.add(new ImageInfo(null, bitmapInfo, imageSettings, false, loaderSettings.isLoggingOn(), priority));
+		}
+
+		final PrefetchBatch batch = new PrefetchBatch(this, imageInfos, prefetchMode, loaderSettings.getPrefetchConcurrency(), listener);
+		batch.start();
+		return batch;
+	}
+
+	/**
+	 * Use this to load image without a view, for example for notifications or widgets. Uses the same caches and shares loading with views that need the
+	 * same image.
+	 * 
+	 * @param bitmapInfo
+	 * @param imageSettings
+	 * @return {@link BitmapFuture} that can be used to wait for bitmap or cancel loading.
+	 */
+	public BitmapFuture loadAsync(final BitmapInfo bitmapInfo, ImageSettings imageSettings)
+	{
+		return loadAsync(bitmapInfo, imageSettings, null);
+	}
+
+	/**
+	 * Use this to load image without a view, for example for notifications or widgets. Uses the same caches and shares loading with views that need the
+	 * same image.
+	 * 
+	 * @param bitmapInfo
+	 * @param imageSettings
+	 * @param callback
+	 *            Callback that will be notified on main thread when loading finishes. Can be {@code null}.
+	 * @return {@link BitmapFuture} that can be used to wait for bitmap or cancel loading.
+	 */
+	public BitmapFuture loadAsync(final BitmapInfo bitmapInfo, ImageSettings imageSettings, LoadCallback callback)
+	{
+		final boolean isLoggingOn = BuildConfig.DEBUG && loaderSettings.isLoggingOn();
+
+		// Use default settings if they are not provided
+		if (imageSettings == null)
+			imageSettings = defaultImageSettings;
+
+		// Check if we can start image loading
+		if (bitmapInfo == null || !bitmapInfo.checkInfo())
+		{
+			if (isLoggingOn)
+				Log.w(TAG, "BitmapInfo is null or check failed. Loading will not start.");
+			final BitmapFuture future = new BitmapFuture(null, callback);
+			future.onLoaded(null, null, false);
+			return future;
+		}
+
+		// Create ImageInfo
+		final ImageInfo imageInfo = new ImageInfo(null, bitmapInfo, imageSettings, false, loaderSettings.isLoggingOn(), getPriority(imageSettings, null,
+				Priority.NORMAL));
+		final BitmapFuture future = new BitmapFuture(imageInfo, callback);
+
+		// Try to get bitmap from memory cache
+		if (imageSettings.isUseMemoryCache())
+		{
+			// Bitmap that was evicted after it was found might already be reused by BitmapPool, so it's loaded again
+			final Bitmap bitmap = imageCache.getFromMemory(imageInfo);
+			if (bitmap != null && imageCache.markShared(imageInfo, bitmap))
 			{
 				if (isLoggingOn)
 					Log.i(TAG, "Bitmap found in memory cache. [" + imageInfo.toString() + "]");
-				return;
+				future.onLoaded(imageInfo, bitmap, true);
+				return future;
 			}
 		}
 
+		future.setTask(startLoading(imageInfo, future));
+		return future;
+	}
+
+	/**
+	 * Loads image and blocks until it's loaded. Must not be called on main thread, because result is delivered there.
+	 * 
+	 * @param bitmapInfo
+	 * @param imageSettings
+	 * @return {@link Bitmap} or {@code null} if loading failed, was cancelled or thread was interrupted. Bitmap might be shared with memory cache, so don't
+	 *         recycle it.
+	 */
+	public Bitmap getBitmap(final BitmapInfo bitmapInfo, ImageSettings imageSettings)
+	{
+		if (Looper.myLooper() == Looper.getMainLooper())
+			throw new IllegalStateException("getBitmap - must not be called on main thread. Use loadAsync instead.");
+
+		final BitmapFuture future = loadAsync(bitmapInfo, imageSettings);
 		try
 		{
-			final GetBitmapTask task = new GetBitmapTask(imageInfo);
-			if (SUPPORTS_HONEYCOMB)
-				task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void) null);
-			else
-				task.execute();
+			return future.get();
 		}
-		catch (RejectedExecutionException e)
+		catch (InterruptedException e)
 		{
-			if (isLoggingOn)
-				Log.e(TAG, "Failed to start loading. [" + imageInfo.toString() + "]", e);
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+		}
+		catch (CancellationException e)
+		{
+			if (BuildConfig.DEBUG && loaderSettings.isLoggingOn())
+				Log.w(TAG, "Loading was cancelled.");
+		}
+		catch (ExecutionException e)
+		{
+			if (BuildConfig.DEBUG && loaderSettings.isLoggingOn())
+				Log.e(TAG, "Failed to load bitmap.", e);
 		}
+
+		return null;
 	}
 
 	public void setImageLoaderListener(ImageLoaderListener listener)
@@ -305,11 +594,121 @@ public class ImageLoader
 	// Protected methods
 	// ------------------------------------------------------------------------------------------------------------------------------------
 
+	protected Priority getPriority(ImageSettings imageSettings, Priority priority, Priority defaultPriority)
+	{
+		if (priority != null)
+			return priority;
+
+		if (imageSettings.getPriority() != null)
+			return imageSettings.getPriority();
+
+		return defaultPriority;
+	}
+
+	/**
+	 * Attaches {@link ImageInfo} to already running {@link GetBitmapTask} with the same {@link ImageInfo#getCacheName()} or starts a new one.
+	 * 
+	 * @param imageInfo
+	 *            Info about image to load.
+	 * @return {@link GetBitmapTask} that will deliver bitmap or {@code null} if loading could not be started.
+	 */
+	protected GetBitmapTask startLoading(ImageInfo imageInfo)
+	{
+		return startLoading(imageInfo, null);
+	}
+
+	/**
+	 * Attaches {@link ImageInfo} to already running {@link GetBitmapTask} with the same {@link ImageInfo#getCacheName()} or starts a new one.
+	 * 
+	 * @param imageInfo
+	 *            Info about image to load.
+	 * @param callback
+	 *            Callback that will be notified on main thread when task finishes. Can be {@code null}.
+	 * @return {@link GetBitmapTask} that will deliver bitmap or {@code null} if loading could not be started. Callback is notified in both cases.
+	 */
+	protected GetBitmapTask startLoading(ImageInfo imageInfo, LoadCallback callback)
+	{
+		return startLoading(imageInfo, PrefetchMode.MEMORY, callback);
+	}
+
+	/**
+	 * Starts loading. Only {@link PrefetchMode#MEMORY} tasks are shared by {@link ImageInfo#getCacheName()}, disk only tasks never produce bitmap that views
+	 * could use and only share fetching of the original.
+	 * 
+	 * @param imageInfo
+	 *            Info about image to load.
+	 * @param prefetchMode
+	 *            Where loaded image should end up.
+	 * @param callback
+	 *            Callback that will be notified on main thread when task finishes. Can be {@code null}.
+	 * @return {@link GetBitmapTask} that will deliver bitmap or {@code null} if loading could not be started. Callback is notified in both cases.
+	 */
+	protected GetBitmapTask startLoading(ImageInfo imageInfo, PrefetchMode prefetchMode, LoadCallback callback)
+	{
+		final boolean isLoggingOn = BuildConfig.DEBUG && loaderSettings.isLoggingOn();
+		final String cacheName = imageInfo.getCacheName();
+		final GetBitmapTask task;
+
+		if (prefetchMode != PrefetchMode.MEMORY)
+		{
+			task = new GetBitmapTask(imageInfo, prefetchMode);
+			task.addSubscriber(this, imageInfo, callback);
+		}
+		else
+		{
+			synchronized (RUNNING_TASKS)
+			{
+				final GetBitmapTask runningTask = RUNNING_TASKS.get(cacheName);
+				if (runningTask != null && runningTask.addSubscriber(this, imageInfo, callback))
+				{
+					if (isLoggingOn)
+						Log.i(TAG, "Attached to running task. [" + imageInfo.toString() + "]");
+					return runningTask;
+				}
+
+				task = new GetBitmapTask(imageInfo);
+				task.addSubscriber(this, imageInfo, callback);
+				RUNNING_TASKS.put(cacheName, task);
+			}
+		}
+
+		try
+		{
+			task.execute();
+			return task;
+		}
+		catch (RejectedExecutionException e)
+		{
+			if (isLoggingOn)
+				Log.e(TAG, "Failed to start loading. [" + imageInfo.toString() + "]", e);
+			task.cancel();
+			task.finish(null);
+		}
+
+		return null;
+	}
+
+	protected void setImage(View view, ImageInfo imageInfo, Bitmap bitmap)
+	{
+		setImage(view, imageInfo, bitmap, false, false);
+	}
+
+	protected void setImage(View view, ImageInfo imageInfo, Bitmap bitmap, boolean isImageInfoOwned, boolean isPinned)
+	{
+		pinImage(view, imageInfo, bitmap, isImageInfoOwned, isPinned);
+		showImage(view, imageInfo.isImageView, bitmap);
+		if (listener != null)
+		{
+			imageCache.markShared(imageInfo, bitmap);
+			listener.onBitmapLoaded(view, imageInfo, bitmap);
+		}
+	}
+
 	@SuppressWarnings("deprecation")
 	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
-	protected void setImage(View view, ImageInfo imageInfo, Bitmap bitmap)
+	protected void showImage(View view, boolean isImageView, Bitmap bitmap)
 	{
-		if (imageInfo.isImageView)
+		if (isImageView)
 		{
 			((ImageView) view).setImageBitmap(bitmap);
 		}
@@ -320,141 +719,944 @@ public class ImageLoader
 			else
 				view.setBackgroundDrawable(new BitmapDrawable(context.getResources(), bitmap));
 		}
-		if (listener != null)
-			listener.onBitmapLoaded(view, imageInfo, bitmap);
 	}
 
-	// GetBitmapTask
-	// ------------------------------------------------------------------------------------------------------------------------------------
-
-	public class GetBitmapTask extends AsyncTask<Void, Bitmap, Bitmap>
+	/**
+	 * Sets bitmap from memory cache. If view shows an image that was set the same way, its {@link ImageInfo} and {@link PinnedView} are pointed at the new
+	 * image instead of creating new ones, so binding a recycled view to another cached image doesn't allocate them. Bitmap must already be pinned with
+	 * {@link ImageCache#acquireIfInMemory(String, String, Bitmap)}, view takes over the pin. Must be called on main thread.
+	 */
+	protected void setCachedImage(View view, BitmapInfo bitmapInfo, ImageSettings imageSettings, boolean isImageView, Priority priority, Bitmap bitmap)
 	{
-		protected final ImageInfo	imageInfo;
+		final PinnedView pinnedView = PINNED_VIEWS.get(view);
 
-		public GetBitmapTask(ImageInfo imageInfo)
+		// Listener might keep info, so it gets a new one
+		if (pinnedView == null || !pinnedView.isImageInfoOwned || pinnedView.imageLoader != this || listener != null)
 		{
-			this.imageInfo = imageInfo;
+			setImage(view, new ImageInfo(view, bitmapInfo, imageSettings, isImageView, loaderSettings.isLoggingOn(), priority), bitmap, listener == null, true);
+			return;
 		}
 
-		@Override
-		protected Bitmap doInBackground(Void... params)
-		{
-			final boolean isLoggingOn = imageInfo.isLoggingOn() && BuildConfig.DEBUG;
-			boolean needProcessing = false;
-			Bitmap bitmap = null;
+		releaseCollectedViews();
 
-			// Try to get bitmap from memory
-			if (imageInfo.getImageSettings().isUseMemoryCache())
-			{
-				bitmap = imageCache.getFromMemory(imageInfo);
-				if (isLoggingOn && bitmap != null)
-					Log.i(TAG, "Bitmap found in memory cache. [" + imageInfo.toString() + "]");
-			}
+		// New bitmap was pinned before old one is released, so bitmap that stays the same never becomes evictable in between
+		final Bitmap oldBitmap = pinnedView.bitmap;
+		final String oldCacheName = pinnedView.imageInfo.getCacheName();
+		final String oldPartitionName = pinnedView.imageInfo.getImageSettings().getMemoryPartition();
+		final boolean wasPinned = pinnedView.isPinned;
+		pinnedView.imageInfo.reuse(bitmapInfo, imageSettings, isImageView, priority);
+		pinnedView.bitmap = bitmap;
+		pinnedView.isPinned = true;
+		if (wasPinned)
+			imageCache.release(oldCacheName, oldPartitionName, oldBitmap);
 
-			// Try to get bitmap from file
-			if (bitmap == null && !isCancelled() && imageInfo.getImageSettings().isUseFileCache())
-			{
-				bitmap = imageCache.getFromFile(imageInfo);
-				if (isLoggingOn && bitmap != null)
-					Log.i(TAG, "Bitmap found in file cache. [" + imageInfo.toString() + "]");
-			}
+		showImage(view, isImageView, bitmap);
+	}
 
-			// If bitmap was not found in file cache, try to get bitmap from original bitmap file
-			if (bitmap == null && !isCancelled() && imageInfo.getImageSettings().isUseFileOriginal())
+	/**
+	 * Pins bitmap in {@link ImageCache} for as long as view shows it. Previous bitmap of the view is released. Must be called on main thread.
+	 * 
+	 * @param isImageInfoOwned
+	 *            {@code true} if nothing else keeps {@code imageInfo}, so it can be reused by {@link #setCachedImage(View, BitmapInfo, ImageSettings, boolean,
+	 *            Priority, Bitmap)}.
+	 * @param isPinned
+	 *            {@code true} if bitmap is already pinned and view takes over the pin.
+	 */
+	protected void pinImage(View view, ImageInfo imageInfo, Bitmap bitmap, boolean isImageInfoOwned, boolean isPinned)
+	{
+		releaseCollectedViews();
+
+		final PinnedView pinnedView = new PinnedView(view, this, imageInfo, bitmap);
+		pinnedView.isImageInfoOwned = isImageInfoOwned;
+		if (isPinned)
+			pinnedView.isPinned = true;
+		else
+			pinnedView.acquire();
+		final PinnedView oldPinnedView = PINNED_VIEWS.put(view, pinnedView);
+		if (oldPinnedView != null)
+			oldPinnedView.release();
+
+		if (SUPPORTS_HONEYCOMB_MR1)
+			AttachStateTracker.track(view);
+	}
+
+	/**
+	 * Releases bitmap that view was showing. Call this before view shows something else. Must be called on main thread.
+	 */
+	protected void releaseImage(View view)
+	{
+		final PinnedView pinnedView = PINNED_VIEWS.remove(view);
+		if (pinnedView != null)
+			pinnedView.release();
+	}
+
+	/**
+	 * @return {@code true} if view already shows given bitmap and is not waiting for anything else. Doesn't allocate. Must be called on main thread.
+	 */
+	protected boolean isShowing(View view, Bitmap bitmap)
+	{
+		final PinnedView pinnedView = PINNED_VIEWS.get(view);
+		if (pinnedView == null || !pinnedView.isPinned || pinnedView.bitmap != bitmap || view.getTag() != null)
+			return false;
+
+		// Drawable might have been changed bypassing ImageLoader
+		if (pinnedView.imageInfo.isImageView)
+		{
+			final Drawable drawable = ((ImageView) view).getDrawable();
+			return drawable instanceof BitmapDrawable && ((BitmapDrawable) drawable).getBitmap() == bitmap;
+		}
+		return true;
+	}
+
+	protected static void releaseCollectedViews()
+	{
+		PinnedView pinnedView;
+		while ((pinnedView = (PinnedView) COLLECTED_VIEWS.poll()) != null)
+			pinnedView.release();
+	}
+
+	// GetBitmapTask
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Loads bitmap in stages. Each stage runs on {@link LoaderExecutor} pool that is dedicated for that kind of work and hands the task over to the next
+	 * stage when it's done, so slow downloads never hold threads that could serve file cache hits.
+	 * <p>
+	 * Task is shared by all views and pre-cache requests that need the same {@link ImageInfo#getCacheName()}. Loaded bitmap is delivered to every subscriber
+	 * and task is cancelled only when the last subscriber goes away.
+	 * </p>
+	 */
+	public class GetBitmapTask implements Runnable, Prioritized
+	{
+		protected final ImageInfo			imageInfo;
+		protected final PrefetchMode		prefetchMode;
+		protected final List<Subscriber>	subscribers;
+		protected final List<GetBitmapTask>	fetchWaiters;
+		protected volatile Stage			stage;
+		protected volatile boolean			isCancelled;
+		protected volatile int				priority;
+		protected volatile long				sequence;
+		protected boolean					isFinished;
+		protected File						originalFile;
+		protected BitmapData				bitmapData;
+		protected boolean					isReadingCaches;
+
+		/** {@code true} if bitmap that is delivered is pinned by this task, so it can't be given to {@link BitmapPool} before views pin it. */
+		protected boolean					isBitmapPinned;
+
+		public GetBitmapTask(ImageInfo imageInfo)
+		{
+			this(imageInfo, PrefetchMode.MEMORY);
+		}
+
+		/**
+		 * @param imageInfo
+		 *            Info about image to load.
+		 * @param prefetchMode
+		 *            Where loaded image should end up. Anything other than {@link PrefetchMode#MEMORY} never delivers bitmap.
+		 */
+		public GetBitmapTask(ImageInfo imageInfo, PrefetchMode prefetchMode)
+		{
+			this.imageInfo = imageInfo;
+			this.prefetchMode = prefetchMode;
+			this.subscribers = new ArrayList<Subscriber>();
+			this.fetchWaiters = new ArrayList<GetBitmapTask>();
+			this.stage = Stage.DISK;
+			this.isCancelled = false;
+			this.priority = imageInfo.getPriority().ordinal();
+			this.sequence = SEQUENCE.incrementAndGet();
+			this.isFinished = false;
+			this.isReadingCaches = false;
+			this.isBitmapPinned = false;
+		}
+
+		// Runnable
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		@Override
+		public void run()
+		{
+			if (isCancelled() || dropStaleSubscribers())
+			{
+				finish(null);
+				return;
+			}
+
+			try
+			{
+				switch (stage)
+				{
+					case DISK:
+						runDiskStage();
+						break;
+
+					case NETWORK:
+						runNetworkStage();
+						break;
+
+					case DECODE:
+						runDecodeStage();
+						break;
+				}
+			}
+			catch (RejectedExecutionException e)
+			{
+				if (BuildConfig.DEBUG && imageInfo.isLoggingOn())
+					Log.e(TAG, "Failed to continue loading. [" + imageInfo.toString() + "]", e);
+				finish(null);
+			}
+		}
+
+		// Public methods
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		/**
+		 * Starts loading from the first stage.
+		 */
+		public void execute()
+		{
+			executor.execute(Stage.DISK, this);
+		}
+
+		/**
+		 * Cancels loading for all subscribers. Download and decode that are currently running are aborted and the next stage will not start.
+		 */
+		public void cancel()
+		{
+			isCancelled = true;
+			imageInfo.cancel();
+			removeFromRunningTasks();
+		}
+
+		/**
+		 * Adds subscriber that will receive loaded bitmap.
+		 * 
+		 * @param imageLoader
+		 *            {@link ImageLoader} that will set the image.
+		 * @param imageInfo
+		 *            Info about image and view that needs it.
+		 * @return {@code true} if subscriber was added; {@code false} if task is already finished or cancelled.
+		 */
+		public boolean addSubscriber(ImageLoader imageLoader, ImageInfo imageInfo)
+		{
+			return addSubscriber(imageLoader, imageInfo, null);
+		}
+
+		/**
+		 * Adds subscriber that will receive loaded bitmap.
+		 * 
+		 * @param imageLoader
+		 *            {@link ImageLoader} that will set the image.
+		 * @param imageInfo
+		 *            Info about image and view that needs it.
+		 * @param callback
+		 *            Callback that will be notified on main thread when task finishes. Can be {@code null}.
+		 * @return {@code true} if subscriber was added; {@code false} if task is already finished or cancelled.
+		 */
+		public boolean addSubscriber(ImageLoader imageLoader, ImageInfo imageInfo, LoadCallback callback)
+		{
+			synchronized (subscribers)
+			{
+				if (isFinished || isCancelled)
+					return false;
+
+				final View view = imageInfo.getView();
+				if (view != null)
+					view.setTag(this);
+				subscribers.add(new Subscriber(imageLoader, imageInfo, callback, view != null));
+
+				// Task is as important as its most important subscriber and as recent as its latest subscriber
+				priority = Math.max(priority, imageInfo.getPriority().ordinal());
+				sequence = SEQUENCE.incrementAndGet();
+			}
+
+			// Queue keeps values from when task was queued, so it has to be queued again to move up
+			executor.reprioritize(stage, this);
+			return true;
+		}
+
+		/**
+		 * Removes subscriber that was loading image for given view. If it was the last subscriber, task is cancelled.
+		 * 
+		 * @param view
+		 *            View that doesn't need the image anymore.
+		 */
+		public void removeSubscriber(View view)
+		{
+			if (view == null)
+				return;
+
+			synchronized (subscribers)
+			{
+				for (int i = subscribers.size() - 1; i >= 0; i--)
+				{
+					if (subscribers.get(i).imageInfo.getView() == view)
+						subscribers.remove(i);
+				}
+			}
+
+			cancelIfUnsubscribed();
+		}
+
+		/**
+		 * Removes subscriber that was added with given {@link ImageInfo}. If it was the last subscriber, task is cancelled. Callback of removed subscriber is
+		 * not notified.
+		 * 
+		 * @param imageInfo
+		 *            Info that was used to subscribe.
+		 */
+		public void removeSubscriber(ImageInfo imageInfo)
+		{
+			synchronized (subscribers)
+			{
+				for (int i = subscribers.size() - 1; i >= 0; i--)
+				{
+					if (subscribers.get(i).imageInfo == imageInfo)
+						subscribers.remove(i);
+				}
+			}
+
+			cancelIfUnsubscribed();
+		}
+
+		public boolean isCancelled()
+		{
+			return isCancelled;
+		}
+
+		public ImageInfo getImageInfo()
+		{
+			return imageInfo;
+		}
+
+		// Prioritized
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		@Override
+		public int getPriority()
+		{
+			return priority;
+		}
+
+		@Override
+		public long getSequence()
+		{
+			return sequence;
+		}
+
+		// Protected methods
+		// ------------------------------------------------------------------------------------------------------------------------------------
+
+		/**
+		 * Checks memory cache and file cache indexes. Moves to {@link Stage#DECODE} if bitmap can be read from file cache or scaled down from bigger size, or
+		 * if original file is found. Moves to {@link Stage#NETWORK} if bitmap has to be fetched. Nothing is decoded here, because this stage is not paused.
+		 */
+		protected void runDiskStage()
+		{
+			final boolean isLoggingOn = imageInfo.isLoggingOn() && BuildConfig.DEBUG;
+
+			// Disk only pre-caching never decodes, existence checks are enough
+			if (prefetchMode == PrefetchMode.PROCESSED_FILE)
+			{
+				// Processed image can't end up in file cache that is turned off, so there is no point loading it
+				if (!imageInfo.getImageSettings().isUseFileCache())
+				{
+					if (isLoggingOn)
+						Log.w(TAG, "Cannot pre-cache to processed file cache, it's not used. [" + imageInfo.toString() + "]");
+					finish(null, false);
+					return;
+				}
+
+				if (imageCache.isInFile(imageInfo))
+				{
+					if (isLoggingOn)
+						Log.i(TAG, "Bitmap already in file cache. [" + imageInfo.toString() + "]");
+					finish(null, true);
+					return;
+				}
+			}
+
+			if (prefetchMode == PrefetchMode.MEMORY)
+			{
+				final ImageSettings imageSettings = imageInfo.getImageSettings();
+
+				// Might have been loaded by another task. Memory was checked before this task started, so this is not counted as another request.
+				if (imageSettings.isUseMemoryCache())
+				{
+					final Bitmap bitmap = imageCache.peekFromMemory(imageInfo);
+					if (bitmap != null && imageCache.acquireIfInMemory(imageInfo, bitmap))
+					{
+						if (isLoggingOn)
+							Log.i(TAG, "Bitmap found in memory cache. [" + imageInfo.toString() + "]");
+						isBitmapPinned = true;
+						finish(bitmap);
+						return;
+					}
+				}
+
+				// Scaling bigger size and reading file cache are decodes, so they wait in decode stage while loading is paused
+				if ((imageSettings.isUseMemoryCache() && imageCache.hasLargerVariant(imageInfo))
+						|| (imageSettings.isUseFileCache() && imageCache.isInFile(imageInfo)))
+				{
+					isReadingCaches = true;
+					moveToStage(Stage.DECODE);
+					return;
+				}
+			}
+
+			if (isCancelled())
+			{
+				finish(null);
+				return;
+			}
+
+			continueFromOriginal();
+		}
+
+		/**
+		 * Scales bitmap down from bigger size in memory cache or reads it from file cache. Continues with original if neither worked.
+		 */
+		protected void readCaches()
+		{
+			final boolean isLoggingOn = imageInfo.isLoggingOn() && BuildConfig.DEBUG;
+			final ImageSettings imageSettings = imageInfo.getImageSettings();
+			Bitmap bitmap = null;
+
+			// Bigger size of the same image might be in memory
+			if (imageSettings.isUseMemoryCache())
+			{
+				bitmap = imageCache.getFromLargerVariant(imageInfo);
+				if (bitmap != null)
+				{
+					if (isLoggingOn)
+						Log.i(TAG, "Bitmap scaled down from bigger size in memory cache. [" + imageInfo.toString() + "]");
+					isBitmapPinned = imageCache.putToMemory(imageInfo, bitmap, true);
+					if (isBitmapPinned && isLoggingOn)
+						Log.i(TAG, "Bitmap added to memory cache. [" + imageInfo.toString() + "]");
+				}
+			}
+
+			// Try to get bitmap from file
+			if (bitmap == null && !isCancelled() && imageSettings.isUseFileCache())
 			{
-				final File bitmapFile = imageCache.getOriginalFile(imageInfo);
-				if (bitmapFile != null)
+				bitmap = imageCache.getFromFile(imageInfo);
+				if (bitmap != null)
+				{
+					if (isLoggingOn)
+						Log.i(TAG, "Bitmap found in file cache. [" + imageInfo.toString() + "]");
+					isBitmapPinned = imageSettings.isUseMemoryCache() && imageCache.putToMemory(imageInfo, bitmap, true);
+					if (isBitmapPinned && isLoggingOn)
+						Log.i(TAG, "Bitmap added to memory cache. [" + imageInfo.toString() + "]");
+				}
+			}
+
+			if (bitmap != null || isCancelled())
+			{
+				finish(bitmap);
+				return;
+			}
+
+			continueFromOriginal();
+		}
+
+		/**
+		 * Bitmap is not in memory or file cache. Moves to {@link Stage#DECODE} if original file is found or to {@link Stage#NETWORK} if it has to be fetched.
+		 */
+		protected void continueFromOriginal()
+		{
+			final boolean isLoggingOn = imageInfo.isLoggingOn() && BuildConfig.DEBUG;
+
+			// If bitmap was not found in file cache, try to get bitmap from original bitmap file
+			if (isUseFileOriginal())
+			{
+				originalFile = imageCache.getOriginalFile(imageInfo);
+				if (originalFile != null)
 				{
-					needProcessing = true;
 					if (isLoggingOn)
 						Log.i(TAG, "Bitmap original found in file cache. [" + imageInfo.toString() + "]");
-					bitmap = imageInfo.getBitmapInfo().getBitmapParser(context).parseFromFile(imageInfo, bitmapFile);
-					if (isLoggingOn && bitmap != null)
-						Log.i(TAG, "Bitmap parsed. [" + imageInfo.toString() + "]");
+					onOriginalAvailable();
+					return;
 				}
 			}
 
 			// If bitmap original was not found in original file, try to fetch it
-			if (bitmap == null && !isCancelled())
+			moveToStage(Stage.NETWORK);
+		}
+
+		/**
+		 * Fetches bitmap data, stores it in original file cache and moves to {@link Stage#DECODE}. If the same original is already being fetched by another
+		 * task, this task waits for it without holding a thread and then decodes from original file cache.
+		 */
+		protected void runNetworkStage()
+		{
+			final boolean isLoggingOn = imageInfo.isLoggingOn() && BuildConfig.DEBUG;
+			final boolean useFileOriginal = isUseFileOriginal();
+
+			if (useFileOriginal)
 			{
-				final BitmapData bitmapData = imageInfo.loadBitmapData(context);
-				if (bitmapData != null)
+				synchronized (RUNNING_FETCHES)
 				{
-					if (isLoggingOn)
-						Log.i(TAG, "Bitmap original fetched. [" + imageInfo.toString() + "]");
-
-					bitmap = imageInfo.parseBitmapData(context, bitmapData);
-					if (isLoggingOn && bitmap != null)
-						Log.i(TAG, "Bitmap parsed. [" + imageInfo.toString() + "]");
-					final File fileForOriginalCache = bitmapData.getFileForOriginalCache();
-					if (fileForOriginalCache != null && imageInfo.getImageSettings().isUseFileOriginal()
-							&& imageCache.putToFileOriginal(imageInfo, fileForOriginalCache) && isLoggingOn)
-						Log.i(TAG, "Bitmap original stored in file. [" + imageInfo.toString() + "]");
-					needProcessing = true;
-
-					// Delete file if necessary
-					if (fileForOriginalCache != null && bitmapData.isDeleteFile())
+					final GetBitmapTask fetchingTask = RUNNING_FETCHES.get(imageInfo.getBitmapName());
+					if (fetchingTask != null)
 					{
-						if (fileForOriginalCache.delete() && imageInfo.isLoggingOn())
-							Log.i(TAG, "Temporary file deleted. [" + imageInfo.toString() + "]");
+						if (isLoggingOn)
+							Log.i(TAG, "Waiting for original to be fetched by another task. [" + imageInfo.toString() + "]");
+						fetchingTask.fetchWaiters.add(this);
+						return;
 					}
+
+					// Original might have been stored while this task was moving between stages
+					originalFile = imageCache.getOriginalFile(imageInfo);
+					if (originalFile == null)
+						RUNNING_FETCHES.put(imageInfo.getBitmapName(), this);
+				}
+
+				if (originalFile != null)
+				{
+					onOriginalAvailable();
+					return;
 				}
 			}
 
+			bitmapData = imageInfo.loadBitmapData(context);
+			if (bitmapData == null)
+			{
+				finish(null);
+				return;
+			}
+
+			if (isLoggingOn)
+				Log.i(TAG, "Bitmap original fetched. [" + imageInfo.toString() + "]");
+
+			// Store original before decoding so that other tasks waiting for it can continue
+			final File fileForOriginalCache = bitmapData.getFileForOriginalCache();
+			if (fileForOriginalCache != null && useFileOriginal && imageCache.putToFileOriginal(imageInfo, fileForOriginalCache) && isLoggingOn)
+				Log.i(TAG, "Bitmap original stored in file. [" + imageInfo.toString() + "]");
+			releaseFetchWaiters();
+
+			if (prefetchMode == PrefetchMode.ORIGINAL_FILE)
+			{
+				deleteTemporaryFile();
+				finish(null, imageCache.isInFileOriginal(imageInfo));
+				return;
+			}
+
+			if (isCancelled())
+			{
+				deleteTemporaryFile();
+				finish(null);
+				return;
+			}
+
+			moveToStage(Stage.DECODE);
+		}
+
+		/**
+		 * Reads bitmap from caches when {@link #runDiskStage()} found it there. Otherwise parses bitmap from original file or fetched data, processes it and
+		 * puts it to caches.
+		 */
+		protected void runDecodeStage()
+		{
+			if (isReadingCaches)
+			{
+				isReadingCaches = false;
+				readCaches();
+				return;
+			}
+
+			final boolean isLoggingOn = imageInfo.isLoggingOn() && BuildConfig.DEBUG;
+			Bitmap bitmap = null;
+
+			if (originalFile != null)
+			{
+				bitmap = imageInfo.getBitmapInfo().getBitmapParser(context).parseFromFile(imageInfo, originalFile);
+				if (isLoggingOn && bitmap != null)
+					Log.i(TAG, "Bitmap parsed. [" + imageInfo.toString() + "]");
+			}
+			else if (bitmapData != null)
+			{
+				bitmap = imageInfo.parseBitmapData(context, bitmapData);
+				if (isLoggingOn && bitmap != null)
+					Log.i(TAG, "Bitmap parsed. [" + imageInfo.toString() + "]");
+				deleteTemporaryFile();
+			}
+
+			// Don't process or cache bitmap that nobody needs anymore
+			if (isCancelled())
+			{
+				// Bitmap was never shown, so its memory can be reused
+				if (bitmap != null && !imageCache.getBitmapPool().put(bitmap))
+					bitmap.recycle();
+				finish(null);
+				return;
+			}
+
 			// Process bitmap
 			final ImageProcessor processor = imageInfo.getImageSettings().getImageProcessor();
-			if (needProcessing && bitmap != null && processor != null)
+			if (bitmap != null && processor != null)
 			{
 				bitmap = processor.processImage(bitmap);
 				if (isLoggingOn)
 					Log.i(TAG, "Bitmap processed. [" + imageInfo.toString() + "], Processor: " + processor.toString());
 			}
 
+			// Disk only pre-caching stores processed file and doesn't keep bitmap in memory
+			if (prefetchMode == PrefetchMode.PROCESSED_FILE)
+			{
+				final boolean isStored = bitmap != null && imageInfo.getImageSettings().isUseFileCache()
+						&& (imageCache.putToFile(imageInfo, bitmap) || imageCache.isInFile(imageInfo));
+				if (bitmap != null && !imageCache.getBitmapPool().put(bitmap))
+					bitmap.recycle();
+				finish(null, isStored);
+				return;
+			}
+
 			// Put to cache
 			if (bitmap != null)
 			{
 				if (imageInfo.getImageSettings().isUseFileCache() && imageCache.putToFile(imageInfo, bitmap) && isLoggingOn)
 					Log.i(TAG, "Bitmap added to file cache. [" + imageInfo.toString() + "]");
-				if (imageInfo.getImageSettings().isUseMemoryCache() && imageCache.putToMemory(imageInfo, bitmap) && isLoggingOn)
+				isBitmapPinned = imageInfo.getImageSettings().isUseMemoryCache() && imageCache.putToMemory(imageInfo, bitmap, true);
+				if (isBitmapPinned && isLoggingOn)
 					Log.i(TAG, "Bitmap added to memory cache. [" + imageInfo.toString() + "]");
 			}
 
-			return bitmap;
+			finish(bitmap);
 		}
 
-		@Override
-		protected void onProgressUpdate(Bitmap... values)
+		/**
+		 * Original file is in cache. Disk only pre-caching of originals is done at this point, everything else continues to {@link Stage#DECODE}.
+		 */
+		protected void onOriginalAvailable()
 		{
-			super.onProgressUpdate(values);
+			if (prefetchMode == PrefetchMode.ORIGINAL_FILE)
+				finish(null, true);
+			else
+				moveToStage(Stage.DECODE);
 		}
 
-		@Override
-		protected void onPostExecute(Bitmap bitmap)
+		/**
+		 * @return {@code true} if original file cache should be used. Disk only pre-caching of originals always uses it.
+		 */
+		protected boolean isUseFileOriginal()
+		{
+			return prefetchMode == PrefetchMode.ORIGINAL_FILE || imageInfo.getImageSettings().isUseFileOriginal();
+		}
+
+		protected void moveToStage(Stage stage)
 		{
-			final View view = imageInfo.getView();
+			this.stage = stage;
+			executor.execute(stage, this);
+		}
 
-			if (isCancelled())
+		/**
+		 * Delivers result on main thread.
+		 * 
+		 * @param bitmap
+		 *            Loaded bitmap or {@code null} if loading failed or was cancelled.
+		 */
+		protected void finish(Bitmap bitmap)
+		{
+			finish(bitmap, bitmap != null);
+		}
+
+		/**
+		 * Delivers result on main thread. Results of tasks that finish at the same time are delivered together in the next frame.
+		 * 
+		 * @param bitmap
+		 *            Loaded bitmap or {@code null} if loading failed, was cancelled or bitmap was not kept in memory.
+		 * @param isSuccessful
+		 *            {@code true} if image ended up where it was requested.
+		 */
+		protected void finish(final Bitmap bitmap, final boolean isSuccessful)
+		{
+			releaseFetchWaiters();
+			executor.postToNextFrame(new Runnable()
 			{
-				view.setTag(null);
-				bitmap = null;
-				if (BuildConfig.DEBUG && imageInfo.isLoggingOn())
-					Log.i(TAG, "Bitmap load canceled. [" + imageInfo.toString() + "]");
-				return;
+				@Override
+				public void run()
+				{
+					onPostExecute(bitmap, isSuccessful);
+				}
+			});
+		}
+
+		protected void onPostExecute(Bitmap bitmap, boolean isSuccessful)
+		{
+			final Subscriber[] subscribersCopy;
+			synchronized (subscribers)
+			{
+				isFinished = true;
+				subscribersCopy = subscribers.toArray(new Subscriber[subscribers.size()]);
+				subscribers.clear();
 			}
+			removeFromRunningTasks();
 
-			if (view != null && bitmap != null && imageInfo.getGetBitmapTask() == this)
+			if (isCancelled() && BuildConfig.DEBUG && imageInfo.isLoggingOn())
+				Log.i(TAG, "Bitmap load canceled. [" + imageInfo.toString() + "]");
+
+			for (Subscriber subscriber : subscribersCopy)
 			{
+				if (subscriber.callback != null)
+				{
+					if (isCancelled())
+					{
+						subscriber.callback.onLoaded(subscriber.imageInfo, null, false);
+					}
+					else
+					{
+						if (bitmap != null && subscriber.isBitmapKept)
+							imageCache.markShared(imageInfo, bitmap);
+						subscriber.callback.onLoaded(subscriber.imageInfo, bitmap, isSuccessful);
+					}
+				}
+
+				final View view = subscriber.imageInfo.getView();
+				if (view == null || view.getTag() != this)
+					continue;
+
 				view.setTag(null);
-				setImage(view, imageInfo, bitmap);
+				if (bitmap != null && !isCancelled())
+					subscriber.imageLoader.setImage(view, subscriber.imageInfo, bitmap);
 			}
+
+			// Views have pinned bitmap by now
+			if (isBitmapPinned)
+				imageCache.release(imageInfo, bitmap);
 		}
 
-		// Public methods
-		// ------------------------------------------------------------------------------------------------------------------------------------
+		/**
+		 * Lets tasks that were waiting for this task to fetch the original continue. They decode from original file cache if it was stored or fetch it
+		 * themselves otherwise.
+		 */
+		protected void releaseFetchWaiters()
+		{
+			final GetBitmapTask[] waiters;
+			synchronized (RUNNING_FETCHES)
+			{
+				final String bitmapName = imageInfo.getBitmapName();
+				if (RUNNING_FETCHES.get(bitmapName) == this)
+					RUNNING_FETCHES.remove(bitmapName);
 
-		public ImageInfo getImageInfo()
+				if (fetchWaiters.isEmpty())
+					return;
+
+				waiters = fetchWaiters.toArray(new GetBitmapTask[fetchWaiters.size()]);
+				fetchWaiters.clear();
+			}
+
+			for (GetBitmapTask waiter : waiters)
+			{
+				if (waiter.isCancelled())
+				{
+					waiter.finish(null);
+					continue;
+				}
+
+				try
+				{
+					waiter.originalFile = imageCache.getOriginalFile(waiter.imageInfo);
+					if (waiter.originalFile != null)
+						waiter.onOriginalAvailable();
+					else
+						waiter.moveToStage(Stage.NETWORK);
+				}
+				catch (RejectedExecutionException e)
+				{
+					waiter.finish(null);
+				}
+			}
+		}
+
+		protected void deleteTemporaryFile()
 		{
-			return imageInfo;
+			final File fileForOriginalCache = bitmapData.getFileForOriginalCache();
+			if (fileForOriginalCache != null && bitmapData.isDeleteFile())
+			{
+				if (fileForOriginalCache.delete() && BuildConfig.DEBUG && imageInfo.isLoggingOn())
+					Log.i(TAG, "Temporary file deleted. [" + imageInfo.toString() + "]");
+			}
+		}
+
+		/**
+		 * Removes subscribers whose view was garbage collected. If no subscribers are left, task is cancelled before it starts the next stage. Called on loader
+		 * threads, so view itself is never touched. Views that were bound to a different task are removed on main thread by
+		 * {@link #removeSubscriber(View)} when they are rebound.
+		 * 
+		 * @return {@code true} if task was dropped; {@code false} otherwise.
+		 */
+		protected boolean dropStaleSubscribers()
+		{
+			synchronized (subscribers)
+			{
+				for (int i = subscribers.size() - 1; i >= 0; i--)
+				{
+					final Subscriber subscriber = subscribers.get(i);
+					if (!subscriber.isViewBound)
+						continue;
+
+					if (subscriber.imageInfo.getView() == null)
+						subscribers.remove(i);
+				}
+
+				if (!subscribers.isEmpty())
+					return false;
+			}
+
+			executor.onRequestDropped(stage);
+			if (BuildConfig.DEBUG && imageInfo.isLoggingOn())
+				Log.i(TAG, "All views were recycled. Dropped before " + stage + " stage. [" + imageInfo.toString() + "]");
+			cancel();
+			return true;
+		}
+
+		protected void cancelIfUnsubscribed()
+		{
+			synchronized (subscribers)
+			{
+				if (isFinished || !subscribers.isEmpty())
+					return;
+			}
+
+			if (BuildConfig.DEBUG && imageInfo.isLoggingOn())
+				Log.i(TAG, "Last subscriber removed. Canceling. [" + imageInfo.toString() + "]");
+			cancel();
+		}
+
+		protected void removeFromRunningTasks()
+		{
+			synchronized (RUNNING_TASKS)
+			{
+				final String cacheName = imageInfo.getCacheName();
+				if (RUNNING_TASKS.get(cacheName) == this)
+					RUNNING_TASKS.remove(cacheName);
+			}
+		}
+	}
+
+	/**
+	 * View or pre-cache request waiting for {@link GetBitmapTask} to finish.
+	 */
+	protected static class Subscriber
+	{
+		protected final ImageLoader		imageLoader;
+		protected final ImageInfo		imageInfo;
+		protected final LoadCallback	callback;
+		protected final boolean			isViewBound;
+
+		/** {@code true} if callback might keep the bitmap. Prefetch batches only count loaded images, so their bitmaps can still go to {@link BitmapPool}. */
+		protected final boolean			isBitmapKept;
+
+		/**
+		 * @param imageLoader
+		 * @param imageInfo
+		 * @param callback
+		 * @param isViewBound
+		 *            {@code true} if subscriber is waiting for image on a view. Such subscribers become stale when view is collected.
+		 */
+		public Subscriber(ImageLoader imageLoader, ImageInfo imageInfo, LoadCallback callback, boolean isViewBound)
+		{
+			this.imageLoader = imageLoader;
+			this.imageInfo = imageInfo;
+			this.callback = callback;
+			this.isViewBound = isViewBound;
+			this.isBitmapKept = callback != null && !(callback instanceof PrefetchBatch.CheckCacheRunnable);
+		}
+	}
+
+	// PinnedView
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Bitmap pinned by a view. Released when view shows something else, is detached from window or is garbage collected. When detached view is attached
+	 * again, bitmap is pinned again if it's still cached; otherwise image is loaded again, because bitmap might have been reused for another image.
+	 */
+	protected static class PinnedView extends WeakReference<View>
+	{
+		protected final ImageLoader	imageLoader;
+		protected final ImageInfo	imageInfo;
+		protected Bitmap			bitmap;
+		protected boolean			isPinned;
+
+		/** {@code true} if only this object keeps {@link #imageInfo}, so it can be reused for the next image of the view. */
+		protected boolean			isImageInfoOwned;
+
+		public PinnedView(View view, ImageLoader imageLoader, ImageInfo imageInfo, Bitmap bitmap)
+		{
+			super(view, COLLECTED_VIEWS);
+			this.imageLoader = imageLoader;
+			this.imageInfo = imageInfo;
+			this.bitmap = bitmap;
+			this.isPinned = false;
+			this.isImageInfoOwned = false;
+		}
+
+		public void acquire()
+		{
+			if (!isPinned)
+			{
+				imageLoader.imageCache.acquire(imageInfo, bitmap);
+				isPinned = true;
+			}
+		}
+
+		public void release()
+		{
+			if (isPinned)
+			{
+				isPinned = false;
+				imageLoader.imageCache.release(imageInfo, bitmap);
+			}
+		}
+
+		public void restore(View view)
+		{
+			if (isPinned)
+				return;
+
+			// Bitmap that was evicted meanwhile might be reused by BitmapPool, so it's loaded again
+			if (imageLoader.imageCache.acquireIfInMemory(imageInfo, bitmap))
+				isPinned = true;
+			else
+				imageLoader.loadImage(view, imageInfo.getBitmapInfo(), imageInfo.getImageSettings(), imageInfo.isImageView(),
+						imageInfo.getPriority());
+		}
+	}
+
+	/**
+	 * Releases pinned bitmaps of detached views. Separate class, because {@link View.OnAttachStateChangeListener} is not available before Honeycomb MR1.
+	 */
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB_MR1)
+	protected static class AttachStateTracker implements View.OnAttachStateChangeListener
+	{
+		private static final AttachStateTracker	INSTANCE	= new AttachStateTracker();
+
+		public static void track(View view)
+		{
+			// Remove first, so listener is never added twice
+			view.removeOnAttachStateChangeListener(INSTANCE);
+			view.addOnAttachStateChangeListener(INSTANCE);
+		}
+
+		@Override
+		public void onViewAttachedToWindow(View view)
+		{
+			final PinnedView pinnedView = PINNED_VIEWS.get(view);
+			if (pinnedView != null)
+				pinnedView.restore(view);
+		}
+
+		@Override
+		public void onViewDetachedFromWindow(View view)
+		{
+			final PinnedView pinnedView = PINNED_VIEWS.get(view);
+			if (pinnedView == null)
+				return;
+
+			// Detached view still holds the bitmap and might be attached again without binding, so bitmap must never be reused
+			if (pinnedView.isPinned)
+				pinnedView.imageLoader.imageCache.markShared(pinnedView.imageInfo, pinnedView.bitmap);
+			pinnedView.release();
 		}
 	}
 
@@ -465,4 +1667,44 @@ public class ImageLoader
 	{
 		public void onBitmapLoaded(View imageView, ImageInfo imageInfo, Bitmap bitmap);
 	}
+
+	/**
+	 * Notified on main thread when {@link GetBitmapTask} that was loading image finishes.
+	 */
+	public static interface LoadCallback
+	{
+		/**
+		 * @param imageInfo
+		 *            Info that was used to start loading.
+		 * @param bitmap
+		 *            Loaded bitmap or {@code null} if loading failed, was cancelled or bitmap was only stored in file cache.
+		 * @param isSuccessful
+		 *            {@code true} if image ended up where it was requested.
+		 */
+		public void onLoaded(ImageInfo imageInfo, Bitmap bitmap, boolean isSuccessful);
+	}
+
+	/**
+	 * Notified on main thread about progress of {@link PrefetchBatch}.
+	 */
+	public static interface PrefetchListener
+	{
+		/**
+		 * Called every time an image is loaded, skipped because it was already cached or failed.
+		 * 
+		 * @param completed
+		 *            Number of images that are done.
+		 * @param total
+		 *            Number of images in batch.
+		 */
+		public void onPrefetchProgress(int completed, int total);
+
+		/**
+		 * Called once when all images are done or batch was cancelled.
+		 * 
+		 * @param batch
+		 *            Batch with final counts.
+		 */
+		public void onPrefetchFinished(PrefetchBatch batch);
+	}
 }
\ No newline at end of file
@@ -1,8 +1,12 @@
 package com.code44.imageloader;
 
+import android.graphics.Bitmap.CompressFormat;
 import android.graphics.drawable.Drawable;
 
+import com.code44.imageloader.cache.CacheSettings;
 import com.code44.imageloader.processor.ImageProcessor;
+import com.code44.imageloader.utils.HashKey;
+import com.code44.imageloader.utils.StringUtils;
 
 /**
  * Holds information (size, loading/error drawables, image processors, etc.) about bitmap.
@@ -26,17 +30,40 @@ public class ImageSettings
 		FILL_CROP
 	}
 
-	protected int				width			= 0;
-	protected int				height			= 0;
-	protected int				downSampleBy	= 0;
-	protected Drawable			loadingDrawable	= null;
-	protected Drawable			errorDrawable	= null;
-	protected ImageProcessor	imageProcessor	= null;
-	protected SizeType			sizeType		= SizeType.FILL_CROP;
-	protected boolean			useMemoryCache	= true;
-	protected boolean			useFileCache	= true;
-	protected boolean			useFileOriginal	= true;
-	protected boolean			scaleUp			= true;
+	public enum Priority
+	{
+		/** Used for pre-caching. Loaded only when there is no other work. */
+		LOW,
+
+		/** Used for visible images. */
+		NORMAL,
+
+		/** Loaded before everything else. */
+		HIGH
+	}
+
+	protected int				width				= 0;
+	protected int				height				= 0;
+	protected int				downSampleBy		= 0;
+	protected Drawable			loadingDrawable		= null;
+	protected Drawable			errorDrawable		= null;
+	protected ImageProcessor	imageProcessor		= null;
+	protected SizeType			sizeType			= SizeType.FILL_CROP;
+	protected boolean			useMemoryCache		= true;
+	protected boolean			useFileCache		= true;
+	protected boolean			useFileOriginal		= true;
+	protected boolean			scaleUp				= true;
+	protected boolean			useLargerVariant	= false;
+	protected Priority			priority			= null;
+	protected String			memoryPartition		= null;
+	protected CompressFormat	compressFormat		= null;
+	protected int				compressQuality		= -1;
+
+	/** Memoized {@link #getSettingsName()}. Cleared when any value that is a part of it changes. */
+	protected String			settingsName		= null;
+
+	/** Memoized {@link #getSettingsKey()}. Cleared together with {@link #settingsName}. */
+	protected HashKey			settingsKey			= null;
 
 	// Object
 	// ------------------------------------------------------------------------------------------------------------------------------------
@@ -89,6 +116,7 @@ public class ImageSettings
 	{
 		this.width = width;
 		this.height = height;
+		clearSettingsName();
 	}
 
 	public int getWidth()
@@ -104,6 +132,7 @@ public class ImageSettings
 	public void setDownSampleBy(int downSampleBy)
 	{
 		this.downSampleBy = downSampleBy;
+		clearSettingsName();
 	}
 
 	public int getDownSampleBy()
@@ -141,6 +170,7 @@ public class ImageSettings
 	public void setImageProcessor(ImageProcessor imageProcessor)
 	{
 		this.imageProcessor = imageProcessor;
+		clearSettingsName();
 	}
 
 	public ImageProcessor getImageProcessor()
@@ -191,6 +221,7 @@ public class ImageSettings
 	public void setScaleUp(boolean scaleUp)
 	{
 		this.scaleUp = scaleUp;
+		clearSettingsName();
 	}
 
 	public boolean isScaleUp()
@@ -198,17 +229,138 @@ public class ImageSettings
 		return scaleUp;
 	}
 
+	/**
+	 * If bigger size of the same image is in memory cache, it's scaled down instead of loading image from file cache or decoding the original. Sizes that
+	 * were scaled up or whose source size is not known are not used. Sizes made with the same {@link ImageProcessor}, {@link #getDownSampleBy()} and
+	 * {@link #isScaleUp()} are used as well, so don't turn this on if processor output depends on size (eg. borders of fixed width).
+	 * 
+	 * @param useLargerVariant
+	 *            Default is {@code false}.
+	 */
+	public void setUseLargerVariant(boolean useLargerVariant)
+	{
+		this.useLargerVariant = useLargerVariant;
+	}
+
+	public boolean isUseLargerVariant()
+	{
+		return useLargerVariant;
+	}
+
+	/**
+	 * Priority doesn't change how image looks, so it's not a part of {@link #getSettingsName()}.
+	 * 
+	 * @param priority
+	 *            Priority or {@code null} to let {@link ImageLoader} decide based on whether image is visible or pre-cached.
+	 */
+	public void setPriority(Priority priority)
+	{
+		this.priority = priority;
+	}
+
+	public Priority getPriority()
+	{
+		return priority;
+	}
+
+	/**
+	 * Selects memory cache partition added with {@link CacheSettings#addMemoryPartition(String, int, boolean)}. Partition doesn't change how image looks, so
+	 * it's not a part of {@link #getSettingsName()}.
+	 * 
+	 * @param memoryPartition
+	 *            Name of partition or {@code null} to use {@link CacheSettings#DEFAULT_MEMORY_PARTITION}.
+	 */
+	public void setMemoryPartition(String memoryPartition)
+	{
+		this.memoryPartition = memoryPartition;
+	}
+
+	public String getMemoryPartition()
+	{
+		return memoryPartition;
+	}
+
+	/**
+	 * Overrides format used for processed images file cache. Format doesn't change which image is loaded, so it's not a part of {@link #getSettingsName()}.
+	 * 
+	 * @param compressFormat
+	 *            Format or {@code null} to choose by {@link CacheSettings#getOpaqueCompressFormat()} and
+	 *            {@link CacheSettings#getTransparentCompressFormat()}.
+	 */
+	public void setCompressFormat(CompressFormat compressFormat)
+	{
+		this.compressFormat = compressFormat;
+	}
+
+	public CompressFormat getCompressFormat()
+	{
+		return compressFormat;
+	}
+
+	/**
+	 * Overrides quality used for processed images file cache. Throws {@link IllegalArgumentException} if quality is not -1 or between 0 and 100.
+	 * 
+	 * @param compressQuality
+	 *            Quality or -1 to use {@link CacheSettings#getCompressQuality()}. Ignored by {@link CompressFormat#PNG}.
+	 */
+	public void setCompressQuality(int compressQuality)
+	{
+		if (compressQuality < -1 || compressQuality > 100)
+			throw new IllegalArgumentException("setCompressQuality - quality must be -1 or between 0 and 100 (inclusive)");
+		this.compressQuality = compressQuality;
+	}
+
+	public int getCompressQuality()
+	{
+		return compressQuality;
+	}
+
 	// Public methods
 	// ------------------------------------------------------------------------------------------------------------------------------------
 
 	/**
-	 * This will be a part of bitmap name in cache.
+	 * This will be a part of bitmap name in cache. Name is built once and reused until settings change, so calling this doesn't allocate.
 	 * 
 	 * @return Settings string.
 	 */
 	public String getSettingsName()
 	{
-		return width + "_" + height + "_" + downSampleBy + "_" + scaleUp + "_" + (imageProcessor == null ? "null" : imageProcessor.getUniqueId());
+		String name = settingsName;
+		if (name == null)
+		{
+			name = width + "_" + height + "_" + downSampleBy + "_" + scaleUp + "_" + (imageProcessor == null ? "null" : imageProcessor.getUniqueId());
+			settingsName = name;
+		}
+		return name;
+	}
+
+	/**
+	 * 128-bit hash of {@link #getSettingsName()}. It's built together with the name and kept until settings change, so it can be combined with
+	 * {@code BitmapInfo.getBitmapKey()} on every bind without allocating or locking.
+	 * 
+	 * @return Immutable settings key.
+	 */
+	public HashKey getSettingsKey()
+	{
+		HashKey key = settingsKey;
+		if (key == null)
+		{
+			key = StringUtils.hashKey(getSettingsName());
+			settingsKey = key;
+		}
+		return key;
+	}
+
+	// Protected methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Must be called when any value that is a part of {@link #getSettingsName()} changes.
+	 */
+	protected void clearSettingsName()
+	{
+		settingsName = null;
+		settingsKey = null;
 	}
 
 	// Builder
@@ -224,62 +376,94 @@ public class ImageSettings
 		public ImageSettings build()
 		{
 			if (imageSettings.errorDrawable == null)
-				imageSettings.errorDrawable = imageSettings.loadingDrawable;
+				imageSettings.setErrorDrawable(imageSettings.loadingDrawable);
+
+			// Key is built now, so the first bind doesn't have to
+			imageSettings.getSettingsKey();
 			return imageSettings;
 		}
 
 		public Builder withSize(int width, int height)
 		{
-			imageSettings.width = width;
-			imageSettings.height = height;
+			imageSettings.setSize(width, height);
 			return this;
 		}
 
 		public Builder withDownSampleBy(int downSampleBy)
 		{
-			imageSettings.downSampleBy = downSampleBy;
+			imageSettings.setDownSampleBy(downSampleBy);
 			return this;
 		}
 
 		public Builder withLoadingDrawable(Drawable loadingDrawable)
 		{
-			imageSettings.loadingDrawable = loadingDrawable;
+			imageSettings.setLoadingDrawable(loadingDrawable);
 			return this;
 		}
 
 		public Builder withErrorDrawable(Drawable errorDrawable)
 		{
-			imageSettings.errorDrawable = errorDrawable;
+			imageSettings.setErrorDrawable(errorDrawable);
 			return this;
 		}
 
 		public Builder withImageProcessor(ImageProcessor imageProcessor)
 		{
-			imageSettings.imageProcessor = imageProcessor;
+			imageSettings.setImageProcessor(imageProcessor);
 			return this;
 		}
 
 		public Builder withSizeType(SizeType sizeType)
 		{
-			imageSettings.sizeType = sizeType;
+			imageSettings.setSizeType(sizeType);
 			return this;
 		}
 
 		public Builder withUseMemoryCache(boolean useMemoryCache)
 		{
-			imageSettings.useMemoryCache = useMemoryCache;
+			imageSettings.setUseMemoryCache(useMemoryCache);
 			return this;
 		}
 
 		public Builder withUseFileCache(boolean useFileCache)
 		{
-			imageSettings.useFileCache = useFileCache;
+			imageSettings.setUseFileCache(useFileCache);
 			return this;
 		}
 
 		public Builder withScaleUp(boolean scaleUp)
 		{
-			imageSettings.scaleUp = scaleUp;
+			imageSettings.setScaleUp(scaleUp);
+			return this;
+		}
+
+		public Builder withUseLargerVariant(boolean useLargerVariant)
+		{
+			imageSettings.setUseLargerVariant(useLargerVariant);
+			return this;
+		}
+
+		public Builder withMemoryPartition(String memoryPartition)
+		{
+			imageSettings.setMemoryPartition(memoryPartition);
+			return this;
+		}
+
+		public Builder withPriority(Priority priority)
+		{
+			imageSettings.setPriority(priority);
+			return this;
+		}
+
+		public Builder withCompressFormat(CompressFormat compressFormat)
+		{
+			imageSettings.setCompressFormat(compressFormat);
+			return this;
+		}
+
+		public Builder withCompressQuality(int compressQuality)
+		{
+			imageSettings.setCompressQuality(compressQuality);
 			return this;
 		}
 	}
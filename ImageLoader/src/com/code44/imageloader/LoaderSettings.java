@@ -1,5 +1,7 @@
 package com.code44.imageloader;
 
+import com.code44.imageloader.executor.LoaderExecutor;
+
 /**
  * Holds settings for {@link ImageLoader}.
  * 
@@ -7,7 +9,12 @@ package com.code44.imageloader;
  */
 public class LoaderSettings
 {
-	private boolean	isLoggingOn	= false;
+	private boolean	isLoggingOn			= false;
+	private int		diskPoolSize;
+	private int		networkPoolSize;
+	private int		decodePoolSize;
+	private int		prefetchConcurrency;
+	private int		frameBudgetMillis;
 
 	// Constructors
 	// ------------------------------------------------------------------------------------------------------------------------------------
@@ -15,6 +22,11 @@ public class LoaderSettings
 	public LoaderSettings()
 	{
 		this.isLoggingOn = false;
+		this.diskPoolSize = 2;
+		this.networkPoolSize = 3;
+		this.decodePoolSize = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		this.prefetchConcurrency = 2;
+		this.frameBudgetMillis = 4;
 	}
 
 	// Getters/Setters
@@ -25,6 +37,47 @@ public class LoaderSettings
 		return isLoggingOn;
 	}
 
+	/**
+	 * @return Number of threads used by {@link LoaderExecutor} to read from file cache.
+	 */
+	public int getDiskPoolSize()
+	{
+		return diskPoolSize;
+	}
+
+	/**
+	 * @return Number of threads used by {@link LoaderExecutor} to fetch bitmap data.
+	 */
+	public int getNetworkPoolSize()
+	{
+		return networkPoolSize;
+	}
+
+	/**
+	 * @return Number of threads used by {@link LoaderExecutor} to decode and process bitmaps.
+	 */
+	public int getDecodePoolSize()
+	{
+		return decodePoolSize;
+	}
+
+	/**
+	 * @return Maximum number of images from one {@link ImageLoader#preCacheImages(java.util.Collection, ImageSettings, ImageLoader.PrefetchListener)} batch
+	 *         that are loaded at the same time.
+	 */
+	public int getPrefetchConcurrency()
+	{
+		return prefetchConcurrency;
+	}
+
+	/**
+	 * @return Time in milliseconds that can be spent setting loaded images to views in one frame. Images that don't fit are set in the next frame.
+	 */
+	public int getFrameBudgetMillis()
+	{
+		return frameBudgetMillis;
+	}
+
 	// Builder
 	// ------------------------------------------------------------------------------------------------------------------------------------
 
@@ -45,5 +98,45 @@ public class LoaderSettings
 			loaderSettings.isLoggingOn = isLoggingOn;
 			return this;
 		}
+
+		public Builder withDiskPoolSize(int diskPoolSize)
+		{
+			if (diskPoolSize < 1)
+				throw new IllegalArgumentException("withDiskPoolSize - pool size must be at least 1");
+			loaderSettings.diskPoolSize = diskPoolSize;
+			return this;
+		}
+
+		public Builder withNetworkPoolSize(int networkPoolSize)
+		{
+			if (networkPoolSize < 1)
+				throw new IllegalArgumentException("withNetworkPoolSize - pool size must be at least 1");
+			loaderSettings.networkPoolSize = networkPoolSize;
+			return this;
+		}
+
+		public Builder withDecodePoolSize(int decodePoolSize)
+		{
+			if (decodePoolSize < 1)
+				throw new IllegalArgumentException("withDecodePoolSize - pool size must be at least 1");
+			loaderSettings.decodePoolSize = decodePoolSize;
+			return this;
+		}
+
+		public Builder withPrefetchConcurrency(int prefetchConcurrency)
+		{
+			if (prefetchConcurrency < 1)
+				throw new IllegalArgumentException("withPrefetchConcurrency - concurrency must be at least 1");
+			loaderSettings.prefetchConcurrency = prefetchConcurrency;
+			return this;
+		}
+
+		public Builder withFrameBudgetMillis(int frameBudgetMillis)
+		{
+			if (frameBudgetMillis < 1)
+				throw new IllegalArgumentException("withFrameBudgetMillis - budget must be at least 1ms");
+			loaderSettings.frameBudgetMillis = frameBudgetMillis;
+			return this;
+		}
 	}
-}
\ No newline at end of file
+}
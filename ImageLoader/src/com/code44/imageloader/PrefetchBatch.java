@@ -0,0 +1,304 @@
+package com.code44.imageloader;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.code44.imageloader.ImageLoader.GetBitmapTask;
+import com.code44.imageloader.ImageLoader.LoadCallback;
+import com.code44.imageloader.ImageLoader.PrefetchListener;
+import com.code44.imageloader.ImageLoader.PrefetchMode;
+import com.code44.imageloader.cache.ImageCache.MemoryPressureListener;
+import com.code44.imageloader.executor.LoaderExecutor.Stage;
+
+/**
+ * Created by {@link ImageLoader#preCacheImages(java.util.Collection, ImageSettings, PrefetchListener)}. Loads images of the batch with bounded concurrency
+ * and reports progress. All counters are updated and listener is notified on main thread.
+ * 
+ * @author Mantas Varnagiris
+ */
+public class PrefetchBatch
+{
+	protected final ImageLoader					imageLoader;
+	protected final LinkedList<ImageInfo>		pending;
+	protected final List<CheckCacheRunnable>	running;
+	protected final PrefetchMode				prefetchMode;
+	protected final int							concurrency;
+	protected final int							total;
+	protected final PrefetchListener			listener;
+	protected final MemoryPressureListener		memoryPressureListener;
+	protected int								loaded;
+	protected int								skipped;
+	protected int								failed;
+	protected volatile boolean					isCancelled;
+	protected boolean							isFinished;
+
+	protected PrefetchBatch(ImageLoader imageLoader, List<ImageInfo> imageInfos, PrefetchMode prefetchMode, int concurrency, PrefetchListener listener)
+	{
+		this.imageLoader = imageLoader;
+		this.pending = new LinkedList<ImageInfo>(imageInfos);
+		this.running = new LinkedList<CheckCacheRunnable>();
+		this.prefetchMode = prefetchMode;
+		this.concurrency = concurrency;
+		this.total = imageInfos.size();
+		this.listener = listener;
+		this.memoryPressureListener = new MemoryPressureListener()
+		{
+			@Override
+			public void onMemoryPressureEased()
+			{
+				resume();
+			}
+		};
+		this.loaded = 0;
+		this.skipped = 0;
+		this.failed = 0;
+		this.isCancelled = false;
+		this.isFinished = false;
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Cancels all images of this batch that are not loaded yet. Loading continues if image is also needed by a view or another request. Should be called on
+	 * main thread.
+	 */
+	public void cancel()
+	{
+		if (isFinished)
+			return;
+
+		isCancelled = true;
+		pending.clear();
+		imageLoader.imageCache.removeMemoryPressureListener(memoryPressureListener);
+
+		final CheckCacheRunnable[] runningCopy = running.toArray(new CheckCacheRunnable[running.size()]);
+		running.clear();
+		for (CheckCacheRunnable runnable : runningCopy)
+			runnable.cancel();
+
+		finishIfDone();
+	}
+
+	public boolean isCancelled()
+	{
+		return isCancelled;
+	}
+
+	public boolean isFinished()
+	{
+		return isFinished;
+	}
+
+	/**
+	 * @return Number of images in batch.
+	 */
+	public int getTotal()
+	{
+		return total;
+	}
+
+	/**
+	 * @return Number of images that are loaded, skipped or failed.
+	 */
+	public int getCompleted()
+	{
+		return loaded + skipped + failed;
+	}
+
+	/**
+	 * @return Number of images that were loaded.
+	 */
+	public int getLoaded()
+	{
+		return loaded;
+	}
+
+	/**
+	 * @return Number of images that were skipped because they were already cached.
+	 */
+	public int getSkipped()
+	{
+		return skipped;
+	}
+
+	/**
+	 * @return Number of images that failed to load.
+	 */
+	public int getFailed()
+	{
+		return failed;
+	}
+
+	// Protected methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	protected void start()
+	{
+		for (int i = 0; i < concurrency; i++)
+			startNext();
+		finishIfDone();
+	}
+
+	protected void startNext()
+	{
+		if (isCancelled || pending.isEmpty())
+			return;
+
+		// Wait while system is low on memory. Originals are only downloaded, so they don't need memory.
+		if (prefetchMode != PrefetchMode.ORIGINAL_FILE && imageLoader.imageCache.isPrefetchPaused())
+		{
+			imageLoader.imageCache.addMemoryPressureListener(memoryPressureListener);
+			return;
+		}
+
+		final CheckCacheRunnable runnable = new CheckCacheRunnable(pending.poll());
+		running.add(runnable);
+
+		try
+		{
+			// Existence checks touch file system, so they are done on disk pool
+			imageLoader.executor.execute(Stage.DISK, runnable);
+		}
+		catch (RejectedExecutionException e)
+		{
+			onImageDone(runnable, false, false);
+		}
+	}
+
+	/**
+	 * Called on main thread when memory pressure eases.
+	 */
+	protected void resume()
+	{
+		for (int i = running.size(); i < concurrency; i++)
+			startNext();
+		finishIfDone();
+	}
+
+	/**
+	 * Called on main thread when image is done.
+	 */
+	protected void onImageDone(CheckCacheRunnable runnable, boolean isSkipped, boolean isLoaded)
+	{
+		if (!running.remove(runnable))
+			return;
+
+		if (isSkipped)
+			skipped++;
+		else if (isLoaded)
+			loaded++;
+		else
+			failed++;
+
+		if (BuildConfig.DEBUG && runnable.imageInfo.isLoggingOn())
+			Log.i(ImageLoader.TAG, "Prefetch " + getCompleted() + "/" + total + ". [" + runnable.imageInfo.toString() + "]");
+
+		if (listener != null)
+			listener.onPrefetchProgress(getCompleted(), total);
+
+		startNext();
+		finishIfDone();
+	}
+
+	protected void finishIfDone()
+	{
+		if (isFinished || !running.isEmpty() || (!pending.isEmpty() && !isCancelled))
+			return;
+
+		isFinished = true;
+		if (listener != null)
+			listener.onPrefetchFinished(this);
+	}
+
+	/**
+	 * Cheap check that never decodes.
+	 */
+	protected boolean isCached(ImageInfo imageInfo)
+	{
+		final ImageSettings imageSettings = imageInfo.getImageSettings();
+		switch (prefetchMode)
+		{
+			case ORIGINAL_FILE:
+				return imageLoader.imageCache.isInFileOriginal(imageInfo);
+
+			case PROCESSED_FILE:
+				return imageSettings.isUseFileCache() && imageLoader.imageCache.isInFile(imageInfo);
+
+			default:
+				return (imageSettings.isUseMemoryCache() && imageLoader.imageCache.isInMemory(imageInfo))
+						|| (imageSettings.isUseFileCache() && imageLoader.imageCache.isInFile(imageInfo));
+		}
+	}
+
+	// CheckCacheRunnable
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Checks if image is already cached and starts loading if it's not.
+	 */
+	protected class CheckCacheRunnable implements Runnable, LoadCallback
+	{
+		protected final ImageInfo			imageInfo;
+		protected volatile GetBitmapTask	task;
+		protected volatile boolean			isCancelled;
+
+		public CheckCacheRunnable(ImageInfo imageInfo)
+		{
+			this.imageInfo = imageInfo;
+			this.task = null;
+			this.isCancelled = false;
+		}
+
+		@Override
+		public void run()
+		{
+			if (isCancelled)
+				return;
+
+			if (isCached(imageInfo))
+			{
+				imageLoader.executor.postToMainThread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						onImageDone(CheckCacheRunnable.this, true, false);
+					}
+				});
+				return;
+			}
+
+			// Cache checks might take a while, don't start loading for a batch that was cancelled meanwhile
+			if (isCancelled)
+				return;
+
+			// Task is published before cancel flag is read again and cancel() sets the flag before it reads the task, so at least one of them removes the
+			// subscriber and a cancelled batch never leaves a task running
+			task = imageLoader.startLoading(imageInfo, prefetchMode, this);
+			if (isCancelled)
+				cancel();
+		}
+
+		@Override
+		public void onLoaded(ImageInfo imageInfo, Bitmap bitmap, boolean isSuccessful)
+		{
+			onImageDone(this, false, isSuccessful);
+		}
+
+		/**
+		 * Removes this batch from loading task. Can be called on any thread and more than once.
+		 */
+		public void cancel()
+		{
+			isCancelled = true;
+			final GetBitmapTask task = this.task;
+			if (task != null)
+				task.removeSubscriber(imageInfo);
+		}
+	}
+}
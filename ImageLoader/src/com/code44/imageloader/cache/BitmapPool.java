@@ -0,0 +1,361 @@
+package com.code44.imageloader.cache;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.code44.imageloader.BuildConfig;
+import com.code44.imageloader.ImageLoader;
+
+/**
+ * Singleton. Keeps bitmaps that are no longer used, so decoding can reuse their memory through {@link BitmapFactory.Options#inBitmap} instead of allocating
+ * new bitmaps. Bitmaps are grouped by {@link Bitmap.Config} and byte count. When pool grows over its byte budget, oldest bitmaps are recycled.
+ * <p>
+ * Before KitKat decoded bitmap must have exactly the same size as reused bitmap and {@code inSampleSize} must be 1. From KitKat any bitmap that is big
+ * enough can be reused. Pool does nothing before Honeycomb.
+ * </p>
+ *
+ * @author Mantas Varnagiris
+ */
+public class BitmapPool
+{
+	protected static final String										TAG					= ImageLoader.TAG + " - BitmapPool";
+
+	private static final boolean										SUPPORTS_HONEYCOMB	= android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.HONEYCOMB;
+	private static final boolean										SUPPORTS_KITKAT		= android.os.Build.VERSION.SDK_INT >= 19;
+	private static final boolean										SUPPORTS_LOLLIPOP	= android.os.Build.VERSION.SDK_INT >= 21;
+
+	protected volatile int												maxSize;
+	protected final boolean												isLoggingOn;
+	protected final Map<Bitmap.Config, TreeMap<Integer, LinkedList<Bitmap>>>	groups;
+	protected final LinkedList<Bitmap>									bitmaps;
+	protected int														size;
+
+	// Singleton
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private static BitmapPool											instance;
+
+	/**
+	 * Called by {@link ImageCache} using {@link CacheSettings#getBitmapPoolSize()}.
+	 *
+	 * @param maxSize
+	 *            Maximum size of pool in bytes. 0 disables pool.
+	 * @param isLoggingOn
+	 */
+	public static synchronized void initBitmapPool(int maxSize, boolean isLoggingOn)
+	{
+		if (instance != null)
+			instance.clear();
+		instance = new BitmapPool(maxSize, isLoggingOn);
+	}
+
+	/**
+	 * @return Shared {@link BitmapPool}. If {@link ImageCache} is not created yet, pool is disabled.
+	 */
+	public static synchronized BitmapPool getDefault()
+	{
+		if (instance == null)
+			instance = new BitmapPool(0, false);
+		return instance;
+	}
+
+	protected BitmapPool(int maxSize, boolean isLoggingOn)
+	{
+		this.maxSize = maxSize;
+		this.isLoggingOn = isLoggingOn;
+		this.groups = new HashMap<Bitmap.Config, TreeMap<Integer, LinkedList<Bitmap>>>();
+		this.bitmaps = new LinkedList<Bitmap>();
+		this.size = 0;
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Adds bitmap to pool. Bitmap must not be used anywhere else after this.
+	 *
+	 * @param bitmap
+	 *            Bitmap that is no longer used.
+	 * @return {@code true} if bitmap was added to pool; {@code false} if bitmap cannot be reused. Caller decides whether to recycle it then.
+	 */
+	public boolean put(Bitmap bitmap)
+	{
+		if (!SUPPORTS_HONEYCOMB || bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getConfig() == null)
+			return false;
+
+		final int byteCount = getByteCount(bitmap);
+		if (byteCount > maxSize)
+			return false;
+
+		synchronized (this)
+		{
+			if (bitmaps.contains(bitmap))
+				return true;
+
+			TreeMap<Integer, LinkedList<Bitmap>> group = groups.get(bitmap.getConfig());
+			if (group == null)
+			{
+				group = new TreeMap<Integer, LinkedList<Bitmap>>();
+				groups.put(bitmap.getConfig(), group);
+			}
+
+			LinkedList<Bitmap> sameSize = group.get(byteCount);
+			if (sameSize == null)
+			{
+				sameSize = new LinkedList<Bitmap>();
+				group.put(byteCount, sameSize);
+			}
+
+			sameSize.add(bitmap);
+			bitmaps.add(bitmap);
+			size += byteCount;
+
+			trimToSize(maxSize);
+		}
+
+		if (BuildConfig.DEBUG && isLoggingOn)
+			Log.i(TAG, "Added " + bitmap.getWidth() + "x" + bitmap.getHeight() + " bitmap to pool. Pool size: " + size + "/" + maxSize);
+
+		return true;
+	}
+
+	/**
+	 * Takes bitmap that can be used to decode image of given size. Returned bitmap is removed from pool.
+	 *
+	 * @param width
+	 *            Width of decoded image.
+	 * @param height
+	 *            Height of decoded image.
+	 * @param inSampleSize
+	 *            Sample size that will be used for decoding. {@code width} and {@code height} should already be divided by it.
+	 * @param config
+	 *            Config of decoded bitmap.
+	 * @return Bitmap or {@code null} if there is no suitable bitmap.
+	 */
+	public Bitmap get(int width, int height, int inSampleSize, Bitmap.Config config)
+	{
+		if (!SUPPORTS_HONEYCOMB || width <= 0 || height <= 0)
+			return null;
+
+		// Before KitKat only same size bitmaps decoded without sampling can be reused
+		if (!SUPPORTS_KITKAT && inSampleSize > 1)
+			return null;
+
+		if (config == null)
+			config = Bitmap.Config.ARGB_8888;
+
+		synchronized (this)
+		{
+			final TreeMap<Integer, LinkedList<Bitmap>> group = groups.get(config);
+			if (group == null)
+				return null;
+
+			final int byteCount = width * height * getBytesPerPixel(config);
+			Integer key = group.ceilingKey(byteCount);
+			while (key != null)
+			{
+				// Do not waste bitmaps much bigger than needed
+				if (key > byteCount * 4)
+					return null;
+
+				final LinkedList<Bitmap> sameSize = group.get(key);
+				final Iterator<Bitmap> iterator = sameSize.iterator();
+				while (iterator.hasNext())
+				{
+					final Bitmap bitmap = iterator.next();
+					if (SUPPORTS_KITKAT || (bitmap.getWidth() == width && bitmap.getHeight() == height))
+					{
+						iterator.remove();
+						if (sameSize.isEmpty())
+							group.remove(key);
+						bitmaps.remove(bitmap);
+						size -= key;
+						return bitmap;
+					}
+				}
+
+				if (!SUPPORTS_KITKAT)
+					return null;
+
+				key = group.higherKey(key);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Takes bitmap of exactly given size and config. Use it when pixels are copied into bitmap instead of decoded. Returned bitmap is removed from pool.
+	 *
+	 * @param width
+	 *            Width of bitmap.
+	 * @param height
+	 *            Height of bitmap.
+	 * @param config
+	 *            Config of bitmap.
+	 * @return Bitmap or {@code null} if there is no suitable bitmap.
+	 */
+	public Bitmap getExact(int width, int height, Bitmap.Config config)
+	{
+		if (!SUPPORTS_HONEYCOMB || width <= 0 || height <= 0 || config == null)
+			return null;
+
+		synchronized (this)
+		{
+			final TreeMap<Integer, LinkedList<Bitmap>> group = groups.get(config);
+			if (group == null)
+				return null;
+
+			final Integer key = width * height * getBytesPerPixel(config);
+			final LinkedList<Bitmap> sameSize = group.get(key);
+			if (sameSize == null)
+				return null;
+
+			final Iterator<Bitmap> iterator = sameSize.iterator();
+			while (iterator.hasNext())
+			{
+				final Bitmap bitmap = iterator.next();
+				if (bitmap.getWidth() == width && bitmap.getHeight() == height)
+				{
+					iterator.remove();
+					if (sameSize.isEmpty())
+						group.remove(key);
+					bitmaps.remove(bitmap);
+					size -= key;
+					return bitmap;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Sets {@link BitmapFactory.Options#inBitmap} if there is a suitable bitmap in pool. {@code options} must have {@code outWidth}, {@code outHeight} and
+	 * {@code inSampleSize} set. Purgeable decoding is turned off only when bitmap is reused. When there is nothing to reuse, options are made mutable only
+	 * on devices that ignore {@link BitmapFactory.Options#inPurgeable}, so decoded bitmap can be returned to the pool later.
+	 *
+	 * @param options
+	 *            Options that will be used for decoding.
+	 * @return {@code true} if bitmap from pool will be reused; {@code false} otherwise.
+	 */
+	@TargetApi(11)
+	public boolean addInBitmapOptions(BitmapFactory.Options options)
+	{
+		if (!SUPPORTS_HONEYCOMB || maxSize <= 0)
+			return false;
+
+		// Decoders round sample size down to power of 2, so size might be bigger than expected
+		int sampleSize = 1;
+		while (sampleSize * 2 <= options.inSampleSize)
+			sampleSize *= 2;
+		final int width = (options.outWidth + sampleSize - 1) / sampleSize;
+		final int height = (options.outHeight + sampleSize - 1) / sampleSize;
+
+		final Bitmap bitmap = get(width, height, options.inSampleSize, options.inPreferredConfig);
+		if (bitmap == null)
+		{
+			if (SUPPORTS_LOLLIPOP)
+				options.inMutable = true;
+			return false;
+		}
+
+		// Reused bitmaps must be mutable and cannot be purgeable
+		options.inBitmap = bitmap;
+		options.inMutable = true;
+		options.inPurgeable = false;
+		options.inInputShareable = false;
+
+		if (BuildConfig.DEBUG && isLoggingOn)
+			Log.i(TAG, "Reusing " + bitmap.getWidth() + "x" + bitmap.getHeight() + " bitmap for " + width + "x" + height + " decode.");
+
+		return true;
+	}
+
+	/**
+	 * Recycles all bitmaps in pool.
+	 */
+	public void clear()
+	{
+		trimToSize(0);
+	}
+
+	/**
+	 * Changes maximum size of pool. Oldest bitmaps are recycled if pool is bigger than new size.
+	 *
+	 * @param maxSize
+	 *            Size in bytes. 0 disables pool.
+	 */
+	public void resize(int maxSize)
+	{
+		this.maxSize = maxSize;
+		trimToSize(maxSize);
+	}
+
+	public synchronized int getSize()
+	{
+		return size;
+	}
+
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+
+	// Protected methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Recycles oldest bitmaps until pool is not bigger than {@code maxSize}.
+	 *
+	 * @param maxSize
+	 *            Size in bytes.
+	 */
+	protected synchronized void trimToSize(int maxSize)
+	{
+		while (size > maxSize && !bitmaps.isEmpty())
+		{
+			final Bitmap bitmap = bitmaps.removeFirst();
+			final int byteCount = getByteCount(bitmap);
+			final TreeMap<Integer, LinkedList<Bitmap>> group = groups.get(bitmap.getConfig());
+			final LinkedList<Bitmap> sameSize = group.get(byteCount);
+			sameSize.remove(bitmap);
+			if (sameSize.isEmpty())
+				group.remove(byteCount);
+			size -= byteCount;
+			bitmap.recycle();
+		}
+	}
+
+	@TargetApi(12)
+	protected static int getByteCount(Bitmap bitmap)
+	{
+		if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.HONEYCOMB_MR1)
+			return bitmap.getByteCount();
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+	protected static int getBytesPerPixel(Bitmap.Config config)
+	{
+		switch (config)
+		{
+			case ALPHA_8:
+				return 1;
+
+			case RGB_565:
+			case ARGB_4444:
+				return 2;
+
+			default:
+				return 4;
+		}
+	}
+}
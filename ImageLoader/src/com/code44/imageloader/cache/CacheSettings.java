@@ -1,12 +1,42 @@
 package com.code44.imageloader.cache;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import android.app.ActivityManager;
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+
+import com.code44.imageloader.processor.CompressFormatProvider;
 
 public class CacheSettings
 {
-	private boolean	isLoggingOn;
-	private int		memoryCacheSize;
+	/** Name of partition that is used when {@code ImageSettings} don't select any. Its size is {@link #getMemoryCacheSize()}. */
+	public static final String							DEFAULT_MEMORY_PARTITION	= "default";
+
+	public enum MemoryCachePolicy
+	{
+		/** Least recently used entries are evicted. */
+		LRU,
+
+		/** New entries are admitted only if they are requested more often than entries they would evict. Resists scans through long lists. */
+		TINY_LFU
+	}
+
+	private boolean										isLoggingOn;
+	private int											memoryCacheSize;
+	private int											bitmapPoolSize;
+	private MemoryCachePolicy							memoryCachePolicy;
+	private boolean										migrateLegacyNames;
+	private long										processedFileCacheSize;
+	private long										originalFileCacheSize;
+	private CompressFormat								opaqueCompressFormat;
+	private CompressFormat								transparentCompressFormat;
+	private int											compressQuality;
+	private int											rawFileMaxSize;
+	private final Map<String, MemoryPartitionSettings>	memoryPartitions;
 
 	// Constructors
 	// ------------------------------------------------------------------------------------------------------------------------------------
@@ -15,6 +45,16 @@ public class CacheSettings
 	{
 		this.isLoggingOn = false;
 		setMemoryCacheSizePercent(context, 0.25f);
+		bitmapPoolSize = memoryCacheSize / 4;
+		memoryCachePolicy = MemoryCachePolicy.LRU;
+		migrateLegacyNames = true;
+		processedFileCacheSize = 32 * 1024 * 1024;
+		originalFileCacheSize = 64 * 1024 * 1024;
+		opaqueCompressFormat = CompressFormat.JPEG;
+		transparentCompressFormat = CompressFormat.PNG;
+		compressQuality = 85;
+		rawFileMaxSize = 0;
+		memoryPartitions = new LinkedHashMap<String, MemoryPartitionSettings>();
 	}
 
 	// Getters/Setters
@@ -49,6 +89,205 @@ public class CacheSettings
 		return memoryCacheSize;
 	}
 
+	/**
+	 * Sets maximum size of {@link BitmapPool}. Bitmaps that loader decoded but nobody received (cancelled loads, intermediate decodes, pre-cached files) are
+	 * kept there to be reused when decoding other images. Default is a quarter of memory cache size. Throws {@link IllegalArgumentException} if size is < 0.
+	 * 
+	 * @param bitmapPoolSize
+	 *            Size in bytes. 0 disables bitmap reuse.
+	 */
+	public void setBitmapPoolSize(int bitmapPoolSize)
+	{
+		if (bitmapPoolSize < 0)
+			throw new IllegalArgumentException("setBitmapPoolSize - size must be >= 0");
+		this.bitmapPoolSize = bitmapPoolSize;
+	}
+
+	public int getBitmapPoolSize()
+	{
+		return bitmapPoolSize;
+	}
+
+	/**
+	 * Sets eviction policy of memory cache. Use {@link MemoryCachePolicy#TINY_LFU} if the same images (avatars, icons) are shown on most screens while
+	 * users scroll through many images that are shown only once.
+	 * 
+	 * @param memoryCachePolicy
+	 *            Policy. Default is {@link MemoryCachePolicy#LRU}.
+	 */
+	public void setMemoryCachePolicy(MemoryCachePolicy memoryCachePolicy)
+	{
+		if (memoryCachePolicy == null)
+			throw new IllegalArgumentException("setMemoryCachePolicy - policy cannot be null");
+		this.memoryCachePolicy = memoryCachePolicy;
+	}
+
+	public MemoryCachePolicy getMemoryCachePolicy()
+	{
+		return memoryCachePolicy;
+	}
+
+	/**
+	 * When file is not found in file cache, checks if it's there with a name older versions used (MD5 of the path) and renames it. This costs one extra
+	 * file check for each file cache miss, so turn it off when old files are no longer expected.
+	 * 
+	 * @param migrateLegacyNames
+	 *            Default is {@code true}.
+	 */
+	public void setMigrateLegacyNames(boolean migrateLegacyNames)
+	{
+		this.migrateLegacyNames = migrateLegacyNames;
+	}
+
+	public boolean isMigrateLegacyNames()
+	{
+		return migrateLegacyNames;
+	}
+
+	/**
+	 * Sets maximum size of processed images file cache. Least recently used files are deleted in background when it grows bigger. Default is 32 MB.
+	 * Throws {@link IllegalArgumentException} if size is < 0.
+	 * 
+	 * @param processedFileCacheSize
+	 *            Size in bytes. 0 means there is no limit.
+	 */
+	public void setProcessedFileCacheSize(long processedFileCacheSize)
+	{
+		if (processedFileCacheSize < 0)
+			throw new IllegalArgumentException("setProcessedFileCacheSize - size must be >= 0");
+		this.processedFileCacheSize = processedFileCacheSize;
+	}
+
+	public long getProcessedFileCacheSize()
+	{
+		return processedFileCacheSize;
+	}
+
+	/**
+	 * Sets maximum size of original images file cache. Least recently used files are deleted in background when it grows bigger. Default is 64 MB.
+	 * Throws {@link IllegalArgumentException} if size is < 0.
+	 * 
+	 * @param originalFileCacheSize
+	 *            Size in bytes. 0 means there is no limit.
+	 */
+	public void setOriginalFileCacheSize(long originalFileCacheSize)
+	{
+		if (originalFileCacheSize < 0)
+			throw new IllegalArgumentException("setOriginalFileCacheSize - size must be >= 0");
+		this.originalFileCacheSize = originalFileCacheSize;
+	}
+
+	public long getOriginalFileCacheSize()
+	{
+		return originalFileCacheSize;
+	}
+
+	/**
+	 * Sets format for processed images file cache when {@link Bitmap#hasAlpha()} is {@code false}. Lossy formats encode several times faster than PNG and
+	 * files are several times smaller. Processors can choose otherwise with {@link CompressFormatProvider}.
+	 * 
+	 * @param opaqueCompressFormat
+	 *            Format. Default is {@link CompressFormat#JPEG}. {@code WEBP} is smaller, but it's only available since Android 4.0.
+	 */
+	public void setOpaqueCompressFormat(CompressFormat opaqueCompressFormat)
+	{
+		if (opaqueCompressFormat == null)
+			throw new IllegalArgumentException("setOpaqueCompressFormat - format cannot be null");
+		this.opaqueCompressFormat = opaqueCompressFormat;
+	}
+
+	public CompressFormat getOpaqueCompressFormat()
+	{
+		return opaqueCompressFormat;
+	}
+
+	/**
+	 * Sets format for processed images file cache when {@link Bitmap#hasAlpha()} is {@code true}. JPEG doesn't keep transparency.
+	 * 
+	 * @param transparentCompressFormat
+	 *            Format. Default is {@link CompressFormat#PNG}.
+	 */
+	public void setTransparentCompressFormat(CompressFormat transparentCompressFormat)
+	{
+		if (transparentCompressFormat == null)
+			throw new IllegalArgumentException("setTransparentCompressFormat - format cannot be null");
+		this.transparentCompressFormat = transparentCompressFormat;
+	}
+
+	public CompressFormat getTransparentCompressFormat()
+	{
+		return transparentCompressFormat;
+	}
+
+	/**
+	 * Sets quality of lossy formats for processed images file cache. Throws {@link IllegalArgumentException} if quality is < 0 or > 100.
+	 * 
+	 * @param compressQuality
+	 *            Quality. Default is 85. Ignored by {@link CompressFormat#PNG}.
+	 */
+	public void setCompressQuality(int compressQuality)
+	{
+		if (compressQuality < 0 || compressQuality > 100)
+			throw new IllegalArgumentException("setCompressQuality - quality must be between 0 and 100 (inclusive)");
+		this.compressQuality = compressQuality;
+	}
+
+	public int getCompressQuality()
+	{
+		return compressQuality;
+	}
+
+	/**
+	 * Stores processed bitmaps up to given size as uncompressed pixels instead of {@link #getOpaqueCompressFormat()} or
+	 * {@link #getTransparentCompressFormat()}. They are read back with a memory mapped copy instead of a decode, which is many times faster for small
+	 * thumbnails, but files are as big as bitmaps in memory, so they take a bigger part of {@link #getProcessedFileCacheSize()}. Bitmaps with format set in
+	 * {@code ImageSettings.setCompressFormat(CompressFormat)} are always compressed. Throws {@link IllegalArgumentException} if size is < 0.
+	 * 
+	 * @param rawFileMaxSize
+	 *            Size of bitmap in bytes. Default is 0, which turns raw files off. When turned off, raw files that are already cached are deleted when they are read and written again compressed.
+	 */
+	public void setRawFileMaxSize(int rawFileMaxSize)
+	{
+		if (rawFileMaxSize < 0)
+			throw new IllegalArgumentException("setRawFileMaxSize - size must be >= 0");
+		this.rawFileMaxSize = rawFileMaxSize;
+	}
+
+	public int getRawFileMaxSize()
+	{
+		return rawFileMaxSize;
+	}
+
+	/**
+	 * Adds memory cache partition with its own budget. Partitions are selected with {@code ImageSettings.setMemoryPartition(String)}. Their sizes are in
+	 * addition to {@link #getMemoryCacheSize()}, which is the size of {@link #DEFAULT_MEMORY_PARTITION}. Throws {@link IllegalArgumentException} if name is
+	 * empty or already used or if size is <= 0.
+	 * 
+	 * @param name
+	 *            Name of partition.
+	 * @param maxSize
+	 *            Budget in bytes.
+	 * @param canBorrow
+	 *            If {@code true}, partition can grow over its budget using unused space of default partition. Borrowed space is given back when default
+	 *            partition needs it.
+	 */
+	public void addMemoryPartition(String name, int maxSize, boolean canBorrow)
+	{
+		if (name == null || name.length() == 0 || DEFAULT_MEMORY_PARTITION.equals(name) || memoryPartitions.containsKey(name))
+			throw new IllegalArgumentException("addMemoryPartition - name must be unique and not empty");
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("addMemoryPartition - size must be > 0");
+		memoryPartitions.put(name, new MemoryPartitionSettings(name, maxSize, canBorrow));
+	}
+
+	/**
+	 * @return Partitions added with {@link #addMemoryPartition(String, int, boolean)}. Default partition is not included.
+	 */
+	public Collection<MemoryPartitionSettings> getMemoryPartitions()
+	{
+		return memoryPartitions.values();
+	}
+
 	// Builder
 	// ------------------------------------------------------------------------------------------------------------------------------------
 
@@ -80,5 +319,97 @@ public class CacheSettings
 			cacheSettings.setMemoryCacheSizePercent(context, percent);
 			return this;
 		}
+
+		public Builder withBitmapPoolSize(int bitmapPoolSize)
+		{
+			cacheSettings.setBitmapPoolSize(bitmapPoolSize);
+			return this;
+		}
+
+		public Builder withMemoryCachePolicy(MemoryCachePolicy memoryCachePolicy)
+		{
+			cacheSettings.setMemoryCachePolicy(memoryCachePolicy);
+			return this;
+		}
+
+		public Builder withMigrateLegacyNames(boolean migrateLegacyNames)
+		{
+			cacheSettings.setMigrateLegacyNames(migrateLegacyNames);
+			return this;
+		}
+
+		public Builder withProcessedFileCacheSize(long processedFileCacheSize)
+		{
+			cacheSettings.setProcessedFileCacheSize(processedFileCacheSize);
+			return this;
+		}
+
+		public Builder withOriginalFileCacheSize(long originalFileCacheSize)
+		{
+			cacheSettings.setOriginalFileCacheSize(originalFileCacheSize);
+			return this;
+		}
+
+		public Builder withOpaqueCompressFormat(CompressFormat opaqueCompressFormat)
+		{
+			cacheSettings.setOpaqueCompressFormat(opaqueCompressFormat);
+			return this;
+		}
+
+		public Builder withTransparentCompressFormat(CompressFormat transparentCompressFormat)
+		{
+			cacheSettings.setTransparentCompressFormat(transparentCompressFormat);
+			return this;
+		}
+
+		public Builder withCompressQuality(int compressQuality)
+		{
+			cacheSettings.setCompressQuality(compressQuality);
+			return this;
+		}
+
+		public Builder withRawFileMaxSize(int rawFileMaxSize)
+		{
+			cacheSettings.setRawFileMaxSize(rawFileMaxSize);
+			return this;
+		}
+
+		public Builder withMemoryPartition(String name, int maxSize, boolean canBorrow)
+		{
+			cacheSettings.addMemoryPartition(name, maxSize, canBorrow);
+			return this;
+		}
+	}
+
+	// MemoryPartitionSettings
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	public static class MemoryPartitionSettings
+	{
+		private final String	name;
+		private final int		maxSize;
+		private final boolean	canBorrow;
+
+		public MemoryPartitionSettings(String name, int maxSize, boolean canBorrow)
+		{
+			this.name = name;
+			this.maxSize = maxSize;
+			this.canBorrow = canBorrow;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public int getMaxSize()
+		{
+			return maxSize;
+		}
+
+		public boolean canBorrow()
+		{
+			return canBorrow;
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,741 @@
+package com.code44.imageloader.cache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+import com.code44.imageloader.BuildConfig;
+import com.code44.imageloader.ImageLoader;
+
+/**
+ * Keeps files of a cache directory within size budget. Files are tracked in access order and least recently used ones are deleted on a background thread
+ * when directory grows over budget, so the directory never grows until the system clears the whole cache at once.
+ * <p>
+ * Index of files is kept in memory, so {@link #contains(String)} is answered without touching the file system. Every change is appended to a journal file
+ * in the directory, which is read in background when cache is created, so access order survives restarts. If there is no journal, existing files are
+ * found and ordered by last modified time instead. Journal is checked against the directory, because process can be killed before the latest lines are
+ * written. Nothing is evicted until that's done.
+ * </p>
+ * <p>
+ * Journal is a header followed by one line per change:
+ *
+ * <pre>
+ * WRITE name size
+ * READ name
+ * REMOVE name
+ * </pre>
+ *
+ * It's rewritten when it has many more lines than there are files.
+ * </p>
+ * <p>
+ * Files are written to hidden temp files and renamed when they are complete, so readers never see partially written files. Use
+ * {@link #beginWrite(String)}, {@link #commitWrite(String, File)} and {@link #abortWrite(String, File)}.
+ * </p>
+ *
+ * @author Mantas Varnagiris
+ */
+public class DiskCache
+{
+	protected static final String				TAG					= ImageLoader.TAG + " - DiskCache";
+
+	protected static final String				JOURNAL_FILE_NAME	= ".journal";
+	protected static final String				JOURNAL_TEMP_NAME	= ".journal.tmp";
+	protected static final String				JOURNAL_HEADER		= "com.code44.imageloader.DiskCache 1";
+	protected static final String				WRITE				= "WRITE";
+	protected static final String				READ				= "READ";
+	protected static final String				REMOVE				= "REMOVE";
+	protected static final int					MIN_COMPACT_LINES	= 2000;
+	protected static final String				TEMP_SUFFIX			= ".tmp";
+
+	protected final File						directory;
+	protected final Executor					executor;
+	protected final boolean						isLoggingOn;
+	protected final AtomicLong					evictionCount;
+	protected final Runnable					trimRunnable;
+	protected final Runnable					flushRunnable;
+	/** Names of files that are being written. Guarded by itself. */
+	protected final Set<String>					writesInProgress;
+	/** Temp files of this instance start with it. Temp files with other prefixes are left by killed processes. */
+	protected final String						tempPrefix;
+	protected final AtomicInteger				tempCount;
+	protected volatile long						maxSize;
+
+	/** File name to size. Access ordered. Guarded by this. Until index is loaded, it only has files written meanwhile. */
+	protected LinkedHashMap<String, Long>		entries;
+	protected long								size;
+	protected boolean							isInitialized;
+	protected boolean							isTrimScheduled;
+	/** Journal lines that are not written yet. Until index is loaded, these are all changes made meanwhile. Guarded by this. */
+	protected StringBuilder						pendingLines;
+	protected boolean							isFlushScheduled;
+	/** Only used on executor thread. */
+	protected Writer							journalWriter;
+	protected int								journalLineCount;
+
+	// Constructors
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * @param directory
+	 *            Cache directory.
+	 * @param maxSize
+	 *            Budget in bytes. 0 means there is no limit.
+	 * @param executor
+	 *            Executor for background work. Must be single threaded.
+	 * @param isLoggingOn
+	 *            Whether to log.
+	 */
+	public DiskCache(File directory, long maxSize, Executor executor, boolean isLoggingOn)
+	{
+		if (maxSize < 0)
+			throw new IllegalArgumentException("maxSize < 0");
+
+		this.directory = directory;
+		this.executor = executor;
+		this.isLoggingOn = isLoggingOn;
+		this.evictionCount = new AtomicLong();
+		this.trimRunnable = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				trim();
+			}
+		};
+		this.flushRunnable = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				flush();
+			}
+		};
+		this.writesInProgress = new HashSet<String>();
+		this.tempPrefix = "." + Long.toHexString(System.currentTimeMillis()) + "_";
+		this.tempCount = new AtomicInteger();
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		this.size = 0;
+		this.isInitialized = false;
+		this.isTrimScheduled = false;
+		this.pendingLines = new StringBuilder();
+		this.isFlushScheduled = false;
+		this.journalWriter = null;
+		this.journalLineCount = 0;
+
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				initialize();
+			}
+		});
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Checks if file is in cache without changing access order. File system is only checked while index is still being loaded.
+	 *
+	 * @param name
+	 *            File name.
+	 * @return {@code true} if file is in cache; {@code false} otherwise.
+	 */
+	public boolean contains(String name)
+	{
+		synchronized (this)
+		{
+			if (isInitialized)
+				return entries.containsKey(name);
+		}
+		return new File(directory, name).exists();
+	}
+
+	/**
+	 * Marks file as recently used. Call this when file is read.
+	 *
+	 * @param name
+	 *            File name.
+	 */
+	public void onRead(String name)
+	{
+		synchronized (this)
+		{
+			if (entries.get(name) == null && isInitialized)
+				return;
+			appendLine(READ, name, -1);
+		}
+		scheduleFlush();
+	}
+
+	/**
+	 * Starts writing file. If the same file is being written by another thread, waits until it's done. Every call that returns a file must be followed by
+	 * {@link #commitWrite(String, File)} or {@link #abortWrite(String, File)}.
+	 *
+	 * @param name
+	 *            File name.
+	 * @return Temp file to write to or {@code null} if file is already in cache.
+	 */
+	public File beginWrite(String name)
+	{
+		synchronized (writesInProgress)
+		{
+			try
+			{
+				while (writesInProgress.contains(name))
+					writesInProgress.wait();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return null;
+			}
+
+			if (contains(name))
+				return null;
+			writesInProgress.add(name);
+		}
+		return new File(directory, tempPrefix + tempCount.getAndIncrement() + TEMP_SUFFIX);
+	}
+
+	/**
+	 * Moves completely written temp file to its name and adds it to cache.
+	 *
+	 * @param name
+	 *            File name.
+	 * @param tempFile
+	 *            File returned by {@link #beginWrite(String)}.
+	 * @return {@code true} if file was added; {@code false} if it could not be renamed. Temp file is deleted in that case.
+	 */
+	public boolean commitWrite(String name, File tempFile)
+	{
+		final File file = new File(directory, name);
+		final boolean isRenamed = tempFile.renameTo(file);
+		if (isRenamed)
+			onWrite(name, file);
+		else
+			tempFile.delete();
+		endWrite(name);
+		return isRenamed;
+	}
+
+	/**
+	 * Deletes temp file when writing failed.
+	 *
+	 * @param name
+	 *            File name.
+	 * @param tempFile
+	 *            File returned by {@link #beginWrite(String)}.
+	 */
+	public void abortWrite(String name, File tempFile)
+	{
+		tempFile.delete();
+		endWrite(name);
+	}
+
+	/**
+	 * Adds file that was written to directory. Least recently used files are deleted in background if directory is over budget.
+	 *
+	 * @param name
+	 *            File name.
+	 * @param file
+	 *            Written file.
+	 */
+	public void onWrite(String name, File file)
+	{
+		final long length = file.length();
+		synchronized (this)
+		{
+			final Long previous = entries.put(name, length);
+			if (previous != null)
+				size -= previous;
+			size += length;
+			appendLine(WRITE, name, length);
+		}
+		scheduleFlush();
+		scheduleTrim();
+	}
+
+	/**
+	 * Stops tracking file. Call this when file is deleted or when it turns out that it's missing.
+	 *
+	 * @param name
+	 *            File name.
+	 */
+	public void onRemove(String name)
+	{
+		synchronized (this)
+		{
+			final Long previous = entries.remove(name);
+			if (previous == null && isInitialized)
+				return;
+			if (previous != null)
+				size -= previous;
+			appendLine(REMOVE, name, -1);
+		}
+		scheduleFlush();
+	}
+
+	/**
+	 * @param maxSize
+	 *            Budget in bytes. 0 means there is no limit.
+	 */
+	public void setMaxSize(long maxSize)
+	{
+		if (maxSize < 0)
+			throw new IllegalArgumentException("maxSize < 0");
+
+		this.maxSize = maxSize;
+		scheduleTrim();
+	}
+
+	public long getMaxSize()
+	{
+		return maxSize;
+	}
+
+	/**
+	 * @return Size in bytes of files in directory.
+	 */
+	public synchronized long getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * @return Number of files.
+	 */
+	public synchronized int getCount()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * @return Number of files that were deleted to keep directory within budget.
+	 */
+	public long getEvictionCount()
+	{
+		return evictionCount.get();
+	}
+
+	public File getDirectory()
+	{
+		return directory;
+	}
+
+	// Protected methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Loads index from journal or finds existing files if there is no journal. Changes made meanwhile are applied on top, so files that were read or
+	 * written stay more recent than the rest.
+	 */
+	protected void initialize()
+	{
+		deleteStaleTempFiles();
+
+		LinkedHashMap<String, Long> loaded = readJournal();
+		final boolean isJournalRead = loaded != null;
+		final boolean isJournalBehind;
+		if (isJournalRead)
+		{
+			isJournalBehind = reconcileWithDirectory(loaded);
+		}
+		else
+		{
+			loaded = scanDirectory();
+			isJournalBehind = false;
+		}
+
+		final int entryCount;
+		long loadedSize = 0;
+		synchronized (this)
+		{
+			int start = 0;
+			for (int end = pendingLines.indexOf("\n"); end >= 0; start = end + 1, end = pendingLines.indexOf("\n", start))
+				readJournalLine(pendingLines.substring(start, end), loaded);
+			for (Long length : loaded.values())
+				loadedSize += length;
+
+			entries = loaded;
+			size = loadedSize;
+			entryCount = loaded.size();
+			isInitialized = true;
+		}
+
+		if (BuildConfig.DEBUG && isLoggingOn)
+			Log.i(TAG, (isJournalRead ? "Read journal. " : "Scanned directory. ") + loaded.size() + " files, " + loadedSize + " bytes. ["
+					+ directory.getName() + "]");
+
+		if (!isJournalRead || isJournalBehind || isJournalTooBig(entryCount))
+			rebuildJournal();
+		else
+			flush();
+		scheduleTrim();
+	}
+
+	/**
+	 * @return Index in access order or {@code null} if there is no journal or it cannot be read.
+	 */
+	protected LinkedHashMap<String, Long> readJournal()
+	{
+		final File journalFile = new File(directory, JOURNAL_FILE_NAME);
+		if (!journalFile.exists())
+			return null;
+
+		final LinkedHashMap<String, Long> loaded = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		BufferedReader reader = null;
+		try
+		{
+			reader = new BufferedReader(new FileReader(journalFile), 8192);
+			if (!JOURNAL_HEADER.equals(reader.readLine()))
+				return null;
+
+			int lineCount = 0;
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				lineCount++;
+				readJournalLine(line, loaded);
+			}
+			journalLineCount = lineCount;
+			return loaded;
+		}
+		catch (IOException e)
+		{
+			if (BuildConfig.DEBUG && isLoggingOn)
+				Log.w(TAG, "Failed reading journal. [" + directory.getName() + "]", e);
+			return null;
+		}
+		finally
+		{
+			closeSilently(reader);
+		}
+	}
+
+	/**
+	 * Applies one journal line to index. Malformed lines (eg. last line cut short when process was killed) are skipped.
+	 */
+	protected void readJournalLine(String line, LinkedHashMap<String, Long> loaded)
+	{
+		final int firstSpace = line.indexOf(' ');
+		if (firstSpace <= 0 || firstSpace == line.length() - 1)
+			return;
+
+		final String op = line.substring(0, firstSpace);
+		if (WRITE.equals(op))
+		{
+			final int lastSpace = line.lastIndexOf(' ');
+			if (lastSpace <= firstSpace + 1)
+				return;
+
+			try
+			{
+				loaded.put(line.substring(firstSpace + 1, lastSpace), Long.parseLong(line.substring(lastSpace + 1)));
+			}
+			catch (NumberFormatException e)
+			{
+			}
+		}
+		else if (READ.equals(op))
+		{
+			loaded.get(line.substring(firstSpace + 1));
+		}
+		else if (REMOVE.equals(op))
+		{
+			loaded.remove(line.substring(firstSpace + 1));
+		}
+	}
+
+	/**
+	 * Adds files that journal doesn't know about and removes entries of files that are gone. File can be renamed or deleted and process killed before
+	 * its {@code WRITE} or {@code REMOVE} line is flushed.
+	 * 
+	 * @return {@code true} if index was changed; {@code false} if journal matches directory.
+	 */
+	protected boolean reconcileWithDirectory(LinkedHashMap<String, Long> loaded)
+	{
+		final LinkedHashMap<String, Long> scanned = scanDirectory();
+		boolean isChanged = false;
+
+		final Iterator<String> iterator = loaded.keySet().iterator();
+		while (iterator.hasNext())
+		{
+			if (!scanned.containsKey(iterator.next()))
+			{
+				iterator.remove();
+				isChanged = true;
+			}
+		}
+
+		// Missing files were most likely written just before process was killed, so they are the most recent
+		for (Map.Entry<String, Long> entry : scanned.entrySet())
+		{
+			if (!loaded.containsKey(entry.getKey()))
+			{
+				loaded.put(entry.getKey(), entry.getValue());
+				isChanged = true;
+			}
+		}
+
+		if (BuildConfig.DEBUG && isLoggingOn && isChanged)
+			Log.i(TAG, "Journal was behind directory. [" + directory.getName() + "]");
+		return isChanged;
+	}
+
+	/**
+	 * @return Existing files ordered by last modified time.
+	 */
+	protected LinkedHashMap<String, Long> scanDirectory()
+	{
+		final File[] files = directory.listFiles();
+		final LinkedHashMap<String, Long> scanned = new LinkedHashMap<String, Long>(files != null ? files.length * 2 : 16, 0.75f, true);
+		if (files == null)
+			return scanned;
+
+		final long[] lastModified = new long[files.length];
+		final Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; i++)
+		{
+			lastModified[i] = files[i].lastModified();
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer lhs, Integer rhs)
+			{
+				return lastModified[lhs] < lastModified[rhs] ? -1 : (lastModified[lhs] == lastModified[rhs] ? 0 : 1);
+			}
+		});
+
+		for (Integer index : order)
+		{
+			final File file = files[index];
+			if (isCacheFile(file))
+				scanned.put(file.getName(), file.length());
+		}
+		return scanned;
+	}
+
+	/**
+	 * Must be called while holding lock.
+	 */
+	protected void appendLine(String op, String name, long length)
+	{
+		pendingLines.append(op).append(' ').append(name);
+		if (length >= 0)
+			pendingLines.append(' ').append(length);
+		pendingLines.append('\n');
+	}
+
+	protected void scheduleFlush()
+	{
+		synchronized (this)
+		{
+			if (isFlushScheduled || !isInitialized)
+				return;
+			isFlushScheduled = true;
+		}
+		executor.execute(flushRunnable);
+	}
+
+	/**
+	 * Appends pending lines to journal. Runs on executor thread.
+	 */
+	protected void flush()
+	{
+		final String lines;
+		final int entryCount;
+		synchronized (this)
+		{
+			isFlushScheduled = false;
+			if (pendingLines.length() == 0)
+				return;
+			lines = pendingLines.toString();
+			pendingLines.setLength(0);
+			entryCount = entries.size();
+		}
+
+		try
+		{
+			if (journalWriter == null)
+				journalWriter = new BufferedWriter(new FileWriter(new File(directory, JOURNAL_FILE_NAME), true), 8192);
+			journalWriter.write(lines);
+			journalWriter.flush();
+		}
+		catch (IOException e)
+		{
+			if (BuildConfig.DEBUG && isLoggingOn)
+				Log.w(TAG, "Failed writing journal. [" + directory.getName() + "]", e);
+			closeSilently(journalWriter);
+			journalWriter = null;
+		}
+
+		for (int i = 0, length = lines.length(); i < length; i++)
+		{
+			if (lines.charAt(i) == '\n')
+				journalLineCount++;
+		}
+		if (isJournalTooBig(entryCount))
+			rebuildJournal();
+	}
+
+	protected boolean isJournalTooBig(int entryCount)
+	{
+		return journalLineCount > MIN_COMPACT_LINES && journalLineCount > entryCount * 2;
+	}
+
+	/**
+	 * Writes journal with one line per file in access order. Runs on executor thread.
+	 */
+	protected void rebuildJournal()
+	{
+		closeSilently(journalWriter);
+		journalWriter = null;
+
+		final StringBuilder lines = new StringBuilder();
+		final int lineCount;
+		synchronized (this)
+		{
+			// Snapshot includes everything that is pending
+			pendingLines.setLength(0);
+			lines.append(JOURNAL_HEADER).append('\n');
+			for (Map.Entry<String, Long> entry : entries.entrySet())
+				lines.append(WRITE).append(' ').append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+			lineCount = entries.size();
+		}
+
+		final File tempFile = new File(directory, JOURNAL_TEMP_NAME);
+		Writer writer = null;
+		try
+		{
+			writer = new BufferedWriter(new FileWriter(tempFile), 8192);
+			writer.write(lines.toString());
+			writer.close();
+			writer = null;
+			if (!tempFile.renameTo(new File(directory, JOURNAL_FILE_NAME)))
+				throw new IOException("Cannot rename " + tempFile);
+			journalLineCount = lineCount;
+		}
+		catch (IOException e)
+		{
+			// Old journal is still there, but it's behind. Remove it, so directory is scanned next time.
+			if (BuildConfig.DEBUG && isLoggingOn)
+				Log.w(TAG, "Failed rebuilding journal. [" + directory.getName() + "]", e);
+			closeSilently(writer);
+			tempFile.delete();
+			new File(directory, JOURNAL_FILE_NAME).delete();
+		}
+	}
+
+	protected void scheduleTrim()
+	{
+		synchronized (this)
+		{
+			if (isTrimScheduled || !isInitialized || maxSize == 0 || size <= maxSize)
+				return;
+			isTrimScheduled = true;
+		}
+		executor.execute(trimRunnable);
+	}
+
+	/**
+	 * Deletes least recently used files until directory is within budget.
+	 */
+	protected void trim()
+	{
+		final List<String> evicted = new ArrayList<String>();
+		synchronized (this)
+		{
+			isTrimScheduled = false;
+			final long maxSize = this.maxSize;
+			final Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+			while (maxSize > 0 && size > maxSize && iterator.hasNext())
+			{
+				final Map.Entry<String, Long> eldest = iterator.next();
+				iterator.remove();
+				size -= eldest.getValue();
+				evicted.add(eldest.getKey());
+				appendLine(REMOVE, eldest.getKey(), -1);
+			}
+		}
+
+		for (int i = 0, count = evicted.size(); i < count; i++)
+			new File(directory, evicted.get(i)).delete();
+		evictionCount.addAndGet(evicted.size());
+		if (evicted.size() > 0)
+			flush();
+
+		if (BuildConfig.DEBUG && isLoggingOn && evicted.size() > 0)
+			Log.i(TAG, "Deleted " + evicted.size() + " least recently used files. [" + directory.getName() + "]");
+	}
+
+	protected void endWrite(String name)
+	{
+		synchronized (writesInProgress)
+		{
+			writesInProgress.remove(name);
+			writesInProgress.notifyAll();
+		}
+	}
+
+	/**
+	 * Deletes temp files that were left when process was killed while writing.
+	 */
+	protected void deleteStaleTempFiles()
+	{
+		final String[] names = directory.list();
+		if (names == null)
+			return;
+
+		for (String name : names)
+		{
+			if (name.startsWith(".") && name.endsWith(TEMP_SUFFIX) && !name.startsWith(tempPrefix))
+				new File(directory, name).delete();
+		}
+	}
+
+	/**
+	 * @return {@code true} if file is a cache entry. Hidden files (eg. .nomedia, journal, temp files) and directories are not.
+	 */
+	protected boolean isCacheFile(File file)
+	{
+		return !file.getName().startsWith(".") && file.isFile();
+	}
+
+	protected static void closeSilently(Closeable closeable)
+	{
+		if (closeable == null)
+			return;
+
+		try
+		{
+			closeable.close();
+		}
+		catch (IOException e)
+		{
+		}
+	}
+}
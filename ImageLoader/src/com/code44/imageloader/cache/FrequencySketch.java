@@ -0,0 +1,126 @@
+package com.code44.imageloader.cache;
+
+/**
+ * Count-min sketch with 4-bit counters, used by {@link TinyLfuCache} to estimate how often keys were requested. Uses fixed amount of memory no matter how
+ * many keys are counted. When number of increments reaches sample size, all counters are halved, so old popularity fades away.
+ * <p>
+ * Not synchronized, {@link TinyLfuCache} increments it on every hit without a lock. Concurrent increments can be lost, and an increment that runs
+ * while counters are halved can leave a counter unhalved or undo the halving of its int. Counters are 4 bits and are halved again with next reset, so
+ * these errors don't accumulate and only make estimates less precise.
+ * </p>
+ *
+ * @author Mantas Varnagiris
+ */
+public class FrequencySketch
+{
+	protected static final int[]	SEEDS			= { 0x97cb3127, 0xbe3a2b5d, 0x2f4c1a9b, 0x8a5c3e71 };
+	protected static final int		MAX_FREQUENCY	= 15;
+	protected static final int		RESET_MASK		= 0x77777777;
+
+	/** Each int holds 8 counters. */
+	protected final int[]			table;
+	protected final int				tableMask;
+	protected final int				sampleSize;
+	protected int					additions;
+
+	// Constructors
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * @param expectedKeys
+	 *            Approximate number of distinct keys that should be tracked.
+	 */
+	public FrequencySketch(int expectedKeys)
+	{
+		int tableSize = 16;
+		while (tableSize < expectedKeys)
+			tableSize <<= 1;
+
+		this.table = new int[tableSize];
+		this.tableMask = tableSize - 1;
+		this.sampleSize = 10 * tableSize;
+		this.additions = 0;
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Increments counters for the key.
+	 *
+	 * @param hashCode
+	 *            Hash code of the key.
+	 */
+	public void increment(int hashCode)
+	{
+		final int hash = spread(hashCode);
+		boolean isIncremented = false;
+		for (int i = 0; i < SEEDS.length; i++)
+			isIncremented |= incrementAt(indexOf(hash, i), counterOf(hash, i));
+
+		if (isIncremented && ++additions >= sampleSize)
+			reset();
+	}
+
+	/**
+	 * @param hashCode
+	 *            Hash code of the key.
+	 * @return Estimated number of times key was incremented since it was last aged. Value is between 0 and 15.
+	 */
+	public int frequency(int hashCode)
+	{
+		final int hash = spread(hashCode);
+		int frequency = MAX_FREQUENCY;
+		for (int i = 0; i < SEEDS.length; i++)
+		{
+			final int shift = counterOf(hash, i) << 2;
+			frequency = Math.min(frequency, (table[indexOf(hash, i)] >>> shift) & 0xf);
+		}
+		return frequency;
+	}
+
+	// Protected methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	protected boolean incrementAt(int index, int counter)
+	{
+		final int shift = counter << 2;
+		final int value = table[index];
+		if (((value >>> shift) & 0xf) == MAX_FREQUENCY)
+			return false;
+
+		table[index] = value + (1 << shift);
+		return true;
+	}
+
+	/**
+	 * Halves all counters.
+	 */
+	protected void reset()
+	{
+		for (int i = 0; i < table.length; i++)
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		additions = additions >>> 1;
+	}
+
+	protected int indexOf(int hash, int row)
+	{
+		int h = (hash + SEEDS[row]) * SEEDS[row];
+		h += h >>> 16;
+		return h & tableMask;
+	}
+
+	/**
+	 * @return Which of 8 counters in the int is used for given row. Every row uses different pair of counters.
+	 */
+	protected int counterOf(int hash, int row)
+	{
+		return (row << 1) + ((hash >>> (row << 3)) & 1);
+	}
+
+	protected static int spread(int hashCode)
+	{
+		int h = hashCode * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -7,43 +7,93 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
 import android.os.Environment;
-import android.support.v4.util.LruCache;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.util.Log;
 
 import com.code44.imageloader.BuildConfig;
 import com.code44.imageloader.ImageInfo;
 import com.code44.imageloader.ImageLoader;
+import com.code44.imageloader.ImageSettings;
+import com.code44.imageloader.ImageSettings.SizeType;
+import com.code44.imageloader.cache.CacheSettings.MemoryPartitionSettings;
 import com.code44.imageloader.getter.data.FileBitmapData;
 import com.code44.imageloader.getter.parser.FileBitmapParser;
+import com.code44.imageloader.getter.parser.ScaledBitmapParser;
+import com.code44.imageloader.processor.CompressFormatProvider;
+import com.code44.imageloader.processor.ImageProcessor;
 
 public class ImageCache
 {
-	protected static final String				TAG							= ImageLoader.TAG + " - Cache";
+	protected static final String					TAG							= ImageLoader.TAG + " - Cache";
 
-	protected static final CompressFormat		DEFAULT_COMPRESS_FORMAT		= CompressFormat.PNG;
-	protected static final int					DEFAULT_COMPRESS_QUALITY	= 90;
-	protected static final String				NOMEDIA_FILE_NAME			= ".nomedia";
-	protected static final String				ORIGINAL_CACHE_DIR			= "original";
-	protected static final String				PROCESSED_CACHE_DIR			= "processed";
+	protected static final String					NOMEDIA_FILE_NAME			= ".nomedia";
+	protected static final String					ORIGINAL_CACHE_DIR			= "original";
+	protected static final String					PROCESSED_CACHE_DIR			= "processed";
+	protected static final int						AVERAGE_BITMAP_SIZE			= 64 * 1024;
+	protected static final long						GROW_DELAY_MILLIS			= 30 * 1000;
+	protected static final float					GROW_STEP					= 0.25f;
+	protected static final byte[]					JPEG_END					= { (byte) 0xFF, (byte) 0xD9 };
+	protected static final byte[]					PNG_END						= { 'I', 'E', 'N', 'D', (byte) 0xAE, 0x42, 0x60, (byte) 0x82 };
 
-	protected final Context						context;
-	protected final CacheSettings				cacheSettings;
-	protected final LruCache<String, Bitmap>	memoryCache;
-	protected File								rootCacheDir;
-	protected File								originalCacheDir;
-	protected File								processedCacheDir;
+	protected final Context							context;
+	protected final CacheSettings					cacheSettings;
+	protected final MemoryPartition					defaultPartition;
+	protected final MemoryPartition[]				memoryPartitions;
+	protected final Map<String, MemoryPartition>	memoryPartitionsByName;
+	protected final BitmapPool						bitmapPool;
+	protected final Map<String, PinnedBitmap>		pinnedByName;
+	protected final Map<Bitmap, PinnedBitmap>		pinnedByBitmap;
+	protected final AtomicLong						pinnedHitCount;
+	protected final Map<String, List<Variant>>		variantsByBitmapName;
+	protected final Map<String, Variant>			variantsByCacheName;
+	protected final AtomicLong						variantHitCount;
+	protected final Handler							handler;
+	protected final List<MemoryPressureListener>	memoryPressureListeners;
+	protected final Runnable						growRunnable;
+	protected final ExecutorService					diskExecutor;
+	protected int									pinnedSize;
+	protected float									memorySizePercent;
+	protected volatile boolean						isPrefetchPaused;
+	protected File									rootCacheDir;
+	protected File									originalCacheDir;
+	protected File									processedCacheDir;
+	protected DiskCache								originalDiskCache;
+	protected DiskCache								processedDiskCache;
 
 	// Singleton
 	// ------------------------------------------------------------------------------------------------------------------------------------
 
-	private static ImageCache					instance;
+	private static ImageCache						instance;
 
 	public static void initImageCache(Context context, CacheSettings settings)
 	{
@@ -71,24 +121,83 @@ public class ImageCache
 		else
 			cacheSettings = settings;
 
-		memoryCache = new LruCache<String, Bitmap>(cacheSettings.getMemoryCacheSize())
+		BitmapPool.initBitmapPool(cacheSettings.getBitmapPoolSize(), cacheSettings.isLoggingOn());
+		bitmapPool = BitmapPool.getDefault();
+
+		final int memoryCacheSize = cacheSettings.getMemoryCacheSize();
+		final Collection<MemoryPartitionSettings> partitionSettings = cacheSettings.getMemoryPartitions();
+		defaultPartition = new MemoryPartition(CacheSettings.DEFAULT_MEMORY_PARTITION, memoryCacheSize, false, createMemoryCache(memoryCacheSize));
+		memoryPartitions = new MemoryPartition[partitionSettings.size() + 1];
+		memoryPartitionsByName = new HashMap<String, MemoryPartition>();
+		memoryPartitions[0] = defaultPartition;
+		memoryPartitionsByName.put(defaultPartition.getName(), defaultPartition);
+		int index = 1;
+		for (MemoryPartitionSettings partitionSetting : partitionSettings)
+		{
+			// Partition that can borrow is allowed to grow up to the size of default partition. Borrowed size is limited in putToPartition().
+			final int maxSize = partitionSetting.getMaxSize();
+			final MemoryPartition partition = new MemoryPartition(partitionSetting.getName(), maxSize, partitionSetting.canBorrow(),
+					createMemoryCache(partitionSetting.canBorrow() ? maxSize + memoryCacheSize : maxSize));
+			memoryPartitions[index++] = partition;
+			memoryPartitionsByName.put(partition.getName(), partition);
+		}
+		pinnedByName = new ConcurrentHashMap<String, PinnedBitmap>();
+		pinnedByBitmap = new IdentityHashMap<Bitmap, PinnedBitmap>();
+		pinnedHitCount = new AtomicLong();
+		pinnedSize = 0;
+		variantsByBitmapName = new HashMap<String, List<Variant>>();
+		variantsByCacheName = new HashMap<String, Variant>();
+		variantHitCount = new AtomicLong();
+
+		handler = new Handler(Looper.getMainLooper());
+		memoryPressureListeners = new ArrayList<MemoryPressureListener>();
+		growRunnable = new Runnable()
 		{
-			@TargetApi(12)
 			@Override
-			protected int sizeOf(String key, Bitmap bitmap)
+			public void run()
 			{
-				if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.HONEYCOMB_MR1)
-				{
-					return bitmap.getByteCount();
-				}
-				// Pre HC-MR1
-				return bitmap.getRowBytes() * bitmap.getHeight();
+				grow();
 			}
 		};
+		memorySizePercent = 1.0f;
+		isPrefetchPaused = false;
+		if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+			TrimCallbacks.register(this.context, this);
+
+		// Disk cache bookkeeping and deleting files should not compete with loading
+		diskExecutor = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(final Runnable runnable)
+			{
+				return new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						runnable.run();
+					}
+				}, ImageLoader.TAG + " DiskCache");
+			}
+		});
 
 		rootCacheDir = null;
 		originalCacheDir = null;
 		processedCacheDir = null;
+		originalDiskCache = null;
+		processedDiskCache = null;
+
+		// Load file cache indexes before first lookups need them
+		diskExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				getOriginalDiskCache();
+				getProcessedDiskCache();
+			}
+		});
 	}
 
 	// Public methods
@@ -135,6 +244,202 @@ public class ImageCache
 		return processedCacheDir;
 	}
 
+	/**
+	 * @return {@link DiskCache} that keeps original images file cache within {@link CacheSettings#getOriginalFileCacheSize()}.
+	 */
+	public synchronized DiskCache getOriginalDiskCache()
+	{
+		if (originalDiskCache == null)
+			originalDiskCache = new DiskCache(getOriginalCacheDir(), cacheSettings.getOriginalFileCacheSize(), diskExecutor, cacheSettings.isLoggingOn());
+
+		return originalDiskCache;
+	}
+
+	/**
+	 * @return {@link DiskCache} that keeps processed images file cache within {@link CacheSettings#getProcessedFileCacheSize()}.
+	 */
+	public synchronized DiskCache getProcessedDiskCache()
+	{
+		if (processedDiskCache == null)
+			processedDiskCache = new DiskCache(getProcessedCacheDir(), cacheSettings.getProcessedFileCacheSize(), diskExecutor, cacheSettings.isLoggingOn());
+
+		return processedDiskCache;
+	}
+
+	public BitmapPool getBitmapPool()
+	{
+		return bitmapPool;
+	}
+
+	/**
+	 * @return Number of times bitmap was found in memory cache. All partitions are counted.
+	 */
+	public long getMemoryHitCount()
+	{
+		long count = pinnedHitCount.get();
+		for (MemoryPartition partition : memoryPartitions)
+			count += partition.getHitCount();
+		return count;
+	}
+
+	/**
+	 * @return Number of times bitmap was not found in memory cache. All partitions are counted.
+	 */
+	public long getMemoryMissCount()
+	{
+		long count = 0;
+		for (MemoryPartition partition : memoryPartitions)
+			count += partition.getMissCount();
+		return count;
+	}
+
+	/**
+	 * @return Number of bitmaps that were evicted from memory cache to make space for others. All partitions are counted.
+	 */
+	public long getMemoryEvictionCount()
+	{
+		long count = 0;
+		for (MemoryPartition partition : memoryPartitions)
+			count += partition.getEvictionCount();
+		return count;
+	}
+
+	/**
+	 * @param name
+	 *            Name of partition. Use {@link CacheSettings#DEFAULT_MEMORY_PARTITION} for default partition.
+	 * @return Partition or {@code null} if there is no partition with this name.
+	 */
+	public MemoryPartition getMemoryPartition(String name)
+	{
+		return memoryPartitionsByName.get(name);
+	}
+
+	/**
+	 * @return All memory cache partitions. Default partition is the first one.
+	 */
+	public List<MemoryPartition> getMemoryPartitions()
+	{
+		return Collections.unmodifiableList(Arrays.asList(memoryPartitions));
+	}
+
+	/**
+	 * @return Number of times bitmap was made by scaling down a bigger size of the same image that was in memory. See
+	 *         {@link #getFromLargerVariant(ImageInfo)}.
+	 */
+	public long getVariantHitCount()
+	{
+		return variantHitCount.get();
+	}
+
+	/**
+	 * @return Size in bytes of pinned bitmaps. They are not counted in partition sizes. See {@link MemoryPartition#getPinnedSize()}.
+	 */
+	public int getPinnedSize()
+	{
+		int size;
+		synchronized (pinnedByBitmap)
+		{
+			size = pinnedSize;
+		}
+		for (MemoryPartition partition : memoryPartitions)
+			size += partition.getPinnedSize();
+		return size;
+	}
+
+	/**
+	 * Called automatically from Ice Cream Sandwich. On older versions call it from {@code Activity.onTrimMemory(int)} if you want it. Shrinks memory cache,
+	 * empties {@link BitmapPool} and pauses pre-caching depending on level. Caches grow back in steps when there were no more calls for a while.
+	 * 
+	 * @param level
+	 *            One of {@code ComponentCallbacks2.TRIM_MEMORY_*} levels. Must be called on main thread.
+	 */
+	public void onTrimMemory(int level)
+	{
+		final float percent;
+		final boolean clearPool;
+		final boolean pausePrefetch;
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE)
+		{
+			// Process is likely to be killed. Keep nothing.
+			percent = 0;
+			clearPool = true;
+			pausePrefetch = true;
+		}
+		else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND)
+		{
+			percent = 0.25f;
+			clearPool = true;
+			pausePrefetch = true;
+		}
+		else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+		{
+			// Nothing is on screen, so pre-cached images would only take memory the system is asking back
+			percent = 0.5f;
+			clearPool = true;
+			pausePrefetch = true;
+		}
+		else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+		{
+			percent = 0.25f;
+			clearPool = true;
+			pausePrefetch = true;
+		}
+		else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+		{
+			percent = 0.5f;
+			clearPool = true;
+			pausePrefetch = true;
+		}
+		else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE)
+		{
+			percent = 0.75f;
+			clearPool = false;
+			pausePrefetch = false;
+		}
+		else
+		{
+			return;
+		}
+
+		if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
+			Log.i(TAG, "Trim memory. Level: " + level + ". Memory cache: " + (int) (percent * 100) + "%");
+
+		trim(percent, clearPool, pausePrefetch);
+	}
+
+	/**
+	 * Same as {@link #onTrimMemory(int)} with {@code ComponentCallbacks2.TRIM_MEMORY_COMPLETE}.
+	 */
+	public void onLowMemory()
+	{
+		onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+	}
+
+	/**
+	 * @return {@code true} if pre-caching should wait, because system is low on memory.
+	 */
+	public boolean isPrefetchPaused()
+	{
+		return isPrefetchPaused;
+	}
+
+	/**
+	 * Listener will be notified once on main thread when memory pressure eases and pre-caching can continue. Must be called on main thread.
+	 */
+	public void addMemoryPressureListener(MemoryPressureListener listener)
+	{
+		if (!memoryPressureListeners.contains(listener))
+			memoryPressureListeners.add(listener);
+	}
+
+	/**
+	 * Must be called on main thread.
+	 */
+	public void removeMemoryPressureListener(MemoryPressureListener listener)
+	{
+		memoryPressureListeners.remove(listener);
+	}
+
 	// Public bitmap methods
 	// ------------------------------------------------------------------------------------------------------------------------------------
 
@@ -147,20 +452,126 @@ public class ImageCache
 	 */
 	public Bitmap getFromMemory(ImageInfo imageInfo)
 	{
-		final Bitmap bitmap = memoryCache.get(imageInfo.getCacheName());
+		return getFromMemory(imageInfo.getCacheName(), imageInfo.getImageSettings().getMemoryPartition());
+	}
+
+	/**
+	 * Tries to retrieve image from memory cache. Doesn't allocate anything, so it can be called on every bind while scrolling.
+	 * 
+	 * @param cacheName
+	 *            Cache name of image. See {@link ImageInfo#getCacheName()}.
+	 * @param partitionName
+	 *            Name of memory partition. See {@link ImageSettings#getMemoryPartition()}.
+	 * @return {@link Bitmap} or {@code null} if bitmap was not found in memory.
+	 */
+	public Bitmap getFromMemory(String cacheName, String partitionName)
+	{
+		final PinnedBitmap pinnedBitmap = pinnedByName.get(cacheName);
+		if (pinnedBitmap != null)
+		{
+			pinnedHitCount.incrementAndGet();
+			if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
+				Log.i(TAG, "Memory cache hit. Pinned. [" + cacheName + "]");
+			return pinnedBitmap.bitmap;
+		}
+
+		final Bitmap bitmap = getPartition(partitionName).memoryCache.get(cacheName);
 		if (bitmap != null)
 		{
 			if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
-				Log.i(TAG, "Memory cache hit [" + imageInfo.toString() + "]");
+				Log.i(TAG, "Memory cache hit [" + cacheName + "]");
 			return bitmap;
 		}
 
 		if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
-			Log.i(TAG, "Not found in memory cache [" + imageInfo.toString() + "]");
+			Log.i(TAG, "Not found in memory cache [" + cacheName + "]");
 
 		return null;
 	}
 
+	/**
+	 * Same as {@link #getFromMemory(ImageInfo)}, but doesn't count as a request, so frequency used for eviction and statistics don't change. Use it to
+	 * check memory again for image that was already requested.
+	 * 
+	 * @param imageInfo
+	 *            Info for image to retrieve from memory cache.
+	 * @return {@link Bitmap} or {@code null} if bitmap was not found in memory.
+	 */
+	public Bitmap peekFromMemory(ImageInfo imageInfo)
+	{
+		final String cacheName = imageInfo.getCacheName();
+		final PinnedBitmap pinnedBitmap = pinnedByName.get(cacheName);
+		if (pinnedBitmap != null)
+			return pinnedBitmap.bitmap;
+
+		return getPartition(imageInfo).memoryCache.peek(cacheName);
+	}
+
+	/**
+	 * Checks if {@link #getFromLargerVariant(ImageInfo)} might find bigger size to scale down. Nothing is scaled.
+	 * 
+	 * @param imageInfo
+	 *            Info for image to make.
+	 * @return {@code true} if there is suitable bigger size in memory; {@code false} otherwise.
+	 */
+	public boolean hasLargerVariant(ImageInfo imageInfo)
+	{
+		return imageInfo.getImageSettings().isUseLargerVariant() && findLargerVariant(imageInfo.getBitmapName(), imageInfo.getImageSettings()) != null;
+	}
+
+	/**
+	 * Makes bitmap by scaling down the smallest bigger size of the same image that is in memory, so file cache and decoding can be skipped. Only sizes that
+	 * were made with the same {@link ImageProcessor} and contain the whole area that is needed are used. Returned bitmap is not added to memory cache.
+	 * 
+	 * @param imageInfo
+	 *            Info for image to make.
+	 * @return New {@link Bitmap} or {@code null} if there is no suitable bigger size in memory.
+	 */
+	public Bitmap getFromLargerVariant(ImageInfo imageInfo)
+	{
+		final ImageSettings imageSettings = imageInfo.getImageSettings();
+		if (!imageSettings.isUseLargerVariant())
+			return null;
+
+		final Variant variant = findLargerVariant(imageInfo.getBitmapName(), imageSettings);
+		if (variant == null)
+			return null;
+
+		final MemoryCache<String, Bitmap> memoryCache = variant.partition.memoryCache;
+		final Bitmap source = memoryCache.peek(variant.cacheName);
+		if (source == null)
+		{
+			removeVariant(variant.cacheName);
+			return null;
+		}
+
+		// Pin source, so it's not evicted while it's scaled. It might have been evicted before it was pinned.
+		if (!memoryCache.pin(variant.cacheName, source))
+			return null;
+
+		try
+		{
+			final Bitmap bitmap = scaleVariant(source, imageSettings);
+			if (bitmap != null)
+			{
+				imageInfo.setSourceSize(variant.sourceWidth, variant.sourceHeight);
+				variantHitCount.incrementAndGet();
+				if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
+					Log.i(TAG, "Scaled down from bigger size in memory [" + variant.cacheName + " -> " + imageInfo.toString() + "]");
+			}
+			return bitmap;
+		}
+		catch (OutOfMemoryError e)
+		{
+			Log.e(TAG, "Failed to scale down bigger size. [" + imageInfo.toString() + "]", e);
+			return null;
+		}
+		finally
+		{
+			memoryCache.unpin(variant.cacheName, source);
+		}
+	}
+
 	/**
 	 * Tries to retrieve image from processed images file cache.
 	 * 
@@ -170,15 +581,35 @@ public class ImageCache
 	 */
 	public Bitmap getFromFile(ImageInfo imageInfo)
 	{
-		final File bitmapFile = new File(getProcessedCacheDir(), imageInfo.getCacheName());
-		final Bitmap bitmap = FileBitmapParser.getDefault().parseBitmap(imageInfo, new FileBitmapData(bitmapFile, false));
+		final File bitmapFile = getProcessedFile(imageInfo);
+		final DiskCache diskCache = getProcessedDiskCache();
+		Bitmap bitmap = null;
+		if (diskCache.contains(bitmapFile.getName()))
+		{
+			if (cacheSettings.getRawFileMaxSize() > 0)
+				bitmap = readRawBitmapFile(bitmapFile);
+			if (bitmap == null)
+				bitmap = FileBitmapParser.getDefault().parseBitmap(imageInfo, new FileBitmapData(bitmapFile, false));
+		}
+
 		if (bitmap != null)
 		{
+			// Parser reports size of processed file, not of the original, so it can't tell whether bitmap was scaled up
+			imageInfo.setSourceSize(0, 0);
+			diskCache.onRead(bitmapFile.getName());
 			if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
 				Log.i(TAG, "Processed file cache hit [" + imageInfo.toString() + "]");
 			return bitmap;
 		}
 
+		// Decoding also fails when memory is low. File is deleted only if it's gone or broken (eg. cut short by older versions that didn't write files
+		// atomically), so it's written again.
+		if (!imageInfo.isCancelled() && diskCache.contains(bitmapFile.getName()) && (!bitmapFile.exists() || isBrokenFile(bitmapFile)))
+		{
+			bitmapFile.delete();
+			diskCache.onRemove(bitmapFile.getName());
+		}
+
 		if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
 			Log.i(TAG, "Not found in processed file cache [" + imageInfo.toString() + "]");
 
@@ -194,9 +625,18 @@ public class ImageCache
 	 */
 	public File getOriginalFile(ImageInfo imageInfo)
 	{
-		final File bitmapFile = new File(getOriginalCacheDir(), imageInfo.getBitmapName());
-		if (bitmapFile.exists())
+		final File bitmapFile = getOriginalCacheFile(imageInfo);
+		final DiskCache diskCache = getOriginalDiskCache();
+		if (diskCache.contains(bitmapFile.getName()))
 		{
+			if (!bitmapFile.exists())
+			{
+				// Deleted by someone else
+				diskCache.onRemove(bitmapFile.getName());
+				return null;
+			}
+
+			diskCache.onRead(bitmapFile.getName());
 			if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
 				Log.i(TAG, "Original file cache hit [" + imageInfo.toString() + "]");
 			return bitmapFile;
@@ -208,6 +648,45 @@ public class ImageCache
 		return null;
 	}
 
+	/**
+	 * Checks if image is in memory cache without logging or changing anything.
+	 * 
+	 * @param imageInfo
+	 *            Info for image to check.
+	 * @return {@code true} if image is in memory cache; {@code false} otherwise.
+	 */
+	public boolean isInMemory(ImageInfo imageInfo)
+	{
+		final String cacheName = imageInfo.getCacheName();
+		return pinnedByName.containsKey(cacheName) || getPartition(imageInfo).memoryCache.containsKey(cacheName);
+	}
+
+	/**
+	 * Checks if processed image file exists. Image is not decoded.
+	 * 
+	 * @param imageInfo
+	 *            Info for image to check.
+	 * @return {@code true} if processed image file exists; {@code false} otherwise.
+	 */
+	public boolean isInFile(ImageInfo imageInfo)
+	{
+		final File bitmapFile = getProcessedFile(imageInfo);
+		return getProcessedDiskCache().contains(bitmapFile.getName());
+	}
+
+	/**
+	 * Checks if original image file exists.
+	 * 
+	 * @param imageInfo
+	 *            Info for image to check.
+	 * @return {@code true} if original image file exists; {@code false} otherwise.
+	 */
+	public boolean isInFileOriginal(ImageInfo imageInfo)
+	{
+		final File bitmapFile = getOriginalCacheFile(imageInfo);
+		return getOriginalDiskCache().contains(bitmapFile.getName());
+	}
+
 	/**
 	 * Puts bitmap to memory cache if it's not already there.
 	 * 
@@ -218,13 +697,31 @@ public class ImageCache
 	 * @return {@code true} if bitmap was added to memory cache; {@code false} if bitmap is {@code null} or it is already in memory cache.
 	 */
 	public boolean putToMemory(ImageInfo imageInfo, Bitmap bitmap)
+	{
+		return putToMemory(imageInfo, bitmap, false);
+	}
+
+	/**
+	 * Puts bitmap to memory cache if it's not already there.
+	 * 
+	 * @param imageInfo
+	 *            Info about image.
+	 * @param bitmap
+	 *            Bitmap to put to memory cache.
+	 * @param isPinned
+	 *            {@code true} to pin bitmap if it was added, so it can't be evicted and given to {@link BitmapPool} before it's delivered. Must be
+	 *            released with {@link #release(ImageInfo, Bitmap)}.
+	 * @return {@code true} if bitmap was added to memory cache; {@code false} if bitmap is {@code null} or it is already in memory cache.
+	 */
+	public boolean putToMemory(ImageInfo imageInfo, Bitmap bitmap, boolean isPinned)
 	{
 		final String cacheName = imageInfo.getCacheName();
-		if (bitmap != null && memoryCache.get(cacheName) == null)
+		final MemoryPartition partition = getPartition(imageInfo);
+		if (bitmap != null && !pinnedByName.containsKey(cacheName) && putToPartition(partition, cacheName, bitmap, isPinned) == null)
 		{
+			addVariant(imageInfo, partition, bitmap);
 			if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
 				Log.i(TAG, "Added to memory cache [" + imageInfo.toString() + "]");
-			memoryCache.put(cacheName, bitmap);
 			return true;
 		}
 
@@ -241,51 +738,169 @@ public class ImageCache
 	}
 
 	/**
-	 * Puts bitmap to processed images file cache.
+	 * Pins bitmap that is shown in a view. Pinned bitmap is never evicted and its size is counted separately from partition budget, so bitmaps on screen
+	 * don't push other bitmaps out and evicting them can't free any memory. Pinning bitmap that is in memory cache doesn't allocate. Bitmap that is not in
+	 * memory cache is found by name while it's pinned. Every call must be matched by {@link #release(ImageInfo, Bitmap)}.
 	 * 
 	 * @param imageInfo
 	 *            Info about image.
 	 * @param bitmap
-	 *            Bitmap to put to processed images file cache.
-	 * @return {@code true} if bitmap was added to processed images file cache; {@code false} if bitmap is {@code null} or it is already in cache.
+	 *            Bitmap that is shown.
 	 */
-	public boolean putToFile(ImageInfo imageInfo, Bitmap bitmap)
+	public void acquire(ImageInfo imageInfo, Bitmap bitmap)
 	{
-		// Check if bitmap is not null
-		if (bitmap == null)
-		{
-			if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
-				Log.w(TAG, "Cannot put null to processed file cache [" + imageInfo.toString() + "]");
-			return false;
-		}
+		final String cacheName = imageInfo.getCacheName();
+		if (!getPartition(imageInfo).memoryCache.pin(cacheName, bitmap))
+			acquireOutOfCache(cacheName, bitmap);
+	}
 
-		// Try save bitmap to file
-		try
-		{
-			if (saveBitmapToFile(bitmap, new File(getProcessedCacheDir(), imageInfo.getCacheName())))
-			{
-				if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
-					Log.i(TAG, "Added to file processed cache. [" + imageInfo.toString() + "]");
-				return true;
-			}
-			else
-			{
-				if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
-					Log.i(TAG, "Already in processed file cache. [" + imageInfo.toString() + "]");
-			}
-		}
-		catch (IOException e)
+	/**
+	 * Pins bitmap returned by {@link #getFromMemory(String, String)} only if it's still in memory. Bitmap that was evicted meanwhile might already be in
+	 * {@link BitmapPool}, so it must not be used. Must be matched by {@link #release(ImageInfo, Bitmap)} if it succeeds.
+	 * 
+	 * @param cacheName
+	 *            Cache name of image. See {@link ImageInfo#getCacheName()}.
+	 * @param partitionName
+	 *            Name of memory partition. See {@link ImageSettings#getMemoryPartition()}.
+	 * @param bitmap
+	 *            Bitmap that was found in memory.
+	 * @return {@code true} if bitmap was pinned; {@code false} if it's not in memory anymore.
+	 */
+	public boolean acquireIfInMemory(String cacheName, String partitionName, Bitmap bitmap)
+	{
+		if (getPartition(partitionName).memoryCache.pin(cacheName, bitmap))
+			return true;
+
+		synchronized (pinnedByBitmap)
 		{
-			if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
-				Log.w(TAG, "Failed saving to file cache. [" + imageInfo.toString() + "]");
-			e.printStackTrace();
+			final PinnedBitmap pinnedBitmap = pinnedByName.get(cacheName);
+			if (pinnedBitmap == null || pinnedBitmap.bitmap != bitmap || pinnedByBitmap.get(bitmap) != pinnedBitmap)
+				return false;
+
+			pinnedBitmap.refCount++;
+			return true;
 		}
+	}
 
-		return false;
+	/**
+	 * Same as {@link #acquireIfInMemory(String, String, Bitmap)}.
+	 */
+	public boolean acquireIfInMemory(ImageInfo imageInfo, Bitmap bitmap)
+	{
+		return acquireIfInMemory(imageInfo.getCacheName(), imageInfo.getImageSettings().getMemoryPartition(), bitmap);
 	}
 
 	/**
-	 * Puts bitmap to original images file cache.
+	 * Marks bitmap as given to code that might keep it, for example {@code loadAsync()} callers and listeners. Such bitmaps are never given to
+	 * {@link BitmapPool}. Doesn't block.
+	 * 
+	 * @param imageInfo
+	 *            Info about image.
+	 * @param bitmap
+	 *            Bitmap that is given out.
+	 * @return {@code true} if bitmap can be given out; {@code false} if it was evicted meanwhile and might already be in {@link BitmapPool}.
+	 */
+	public boolean markShared(ImageInfo imageInfo, Bitmap bitmap)
+	{
+		final String cacheName = imageInfo.getCacheName();
+		if (getPartition(imageInfo).memoryCache.markShared(cacheName, bitmap))
+			return true;
+
+		// Bitmaps that are not in memory cache are never given to BitmapPool
+		final PinnedBitmap pinnedBitmap = pinnedByName.get(cacheName);
+		return pinnedBitmap != null && pinnedBitmap.bitmap == bitmap;
+	}
+
+	/**
+	 * Releases bitmap pinned with {@link #acquire(ImageInfo, Bitmap)}. When nothing is showing the bitmap anymore, it can be evicted again.
+	 * 
+	 * @param imageInfo
+	 *            Info about image.
+	 * @param bitmap
+	 *            Bitmap that is no longer shown.
+	 */
+	public void release(ImageInfo imageInfo, Bitmap bitmap)
+	{
+		release(imageInfo.getCacheName(), imageInfo.getImageSettings().getMemoryPartition(), bitmap);
+	}
+
+	/**
+	 * Same as {@link #release(ImageInfo, Bitmap)}. Use it when {@link ImageInfo} has changed since bitmap was pinned.
+	 * 
+	 * @param cacheName
+	 *            Cache name that bitmap was pinned with. See {@link ImageInfo#getCacheName()}.
+	 * @param partitionName
+	 *            Name of memory partition that bitmap was pinned with. See {@link ImageSettings#getMemoryPartition()}.
+	 * @param bitmap
+	 *            Bitmap that is no longer shown.
+	 */
+	public void release(String cacheName, String partitionName, Bitmap bitmap)
+	{
+		if (getPartition(partitionName).memoryCache.unpin(cacheName, bitmap))
+			return;
+
+		synchronized (pinnedByBitmap)
+		{
+			final PinnedBitmap pinnedBitmap = pinnedByBitmap.get(bitmap);
+			if (pinnedBitmap == null || --pinnedBitmap.refCount > 0)
+				return;
+
+			pinnedByBitmap.remove(bitmap);
+			if (pinnedByName.get(pinnedBitmap.cacheName) == pinnedBitmap)
+				pinnedByName.remove(pinnedBitmap.cacheName);
+			pinnedSize -= getBitmapSize(bitmap);
+		}
+	}
+
+	/**
+	 * Puts bitmap to processed images file cache.
+	 * 
+	 * @param imageInfo
+	 *            Info about image.
+	 * @param bitmap
+	 *            Bitmap to put to processed images file cache.
+	 * @return {@code true} if bitmap was added to processed images file cache; {@code false} if bitmap is {@code null} or it is already in cache.
+	 */
+	public boolean putToFile(ImageInfo imageInfo, Bitmap bitmap)
+	{
+		// Check if bitmap is not null
+		if (bitmap == null)
+		{
+			if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
+				Log.w(TAG, "Cannot put null to processed file cache [" + imageInfo.toString() + "]");
+			return false;
+		}
+
+		// Try save bitmap to file
+		try
+		{
+			final File bitmapFile = getProcessedFile(imageInfo);
+			final boolean isSaved = isRawFile(imageInfo, bitmap) ? saveRawBitmapToFile(bitmap, bitmapFile) : saveBitmapToFile(bitmap, bitmapFile,
+					getCompressFormat(imageInfo, bitmap), getCompressQuality(imageInfo));
+			if (isSaved)
+			{
+				if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
+					Log.i(TAG, "Added to file processed cache. [" + imageInfo.toString() + "]");
+				return true;
+			}
+			else
+			{
+				if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
+					Log.i(TAG, "Already in processed file cache. [" + imageInfo.toString() + "]");
+			}
+		}
+		catch (IOException e)
+		{
+			if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
+				Log.w(TAG, "Failed saving to file cache. [" + imageInfo.toString() + "]");
+			e.printStackTrace();
+		}
+
+		return false;
+	}
+
+	/**
+	 * Puts bitmap to original images file cache.
 	 * 
 	 * @param imageInfo
 	 *            Info about image.
@@ -307,10 +922,8 @@ public class ImageCache
 		// Copy file
 		try
 		{
-			final File bitmapFile = new File(getOriginalCacheDir(), imageInfo.getBitmapName());
-			if (!bitmapFile.exists())
+			if (copyToFile(file, getOriginalCacheFile(imageInfo)))
 			{
-				copy(file, bitmapFile);
 				if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
 					Log.i(TAG, "Added to original file cache. [" + imageInfo.toString() + "]");
 				return true;
@@ -334,16 +947,639 @@ public class ImageCache
 	// Protected methods
 	// ------------------------------------------------------------------------------------------------------------------------------------
 
-	protected boolean saveBitmapToFile(final Bitmap bitmap, final File bitmapFile) throws IOException
+	/**
+	 * Pins bitmap that is not in memory cache, because image doesn't use it or bitmap lost the race to another load of the same image. Bitmap is found by
+	 * name while it's pinned, but it's not put to memory cache when it's released.
+	 */
+	protected void acquireOutOfCache(String cacheName, Bitmap bitmap)
+	{
+		synchronized (pinnedByBitmap)
+		{
+			final PinnedBitmap existing = pinnedByBitmap.get(bitmap);
+			if (existing != null)
+			{
+				existing.refCount++;
+				return;
+			}
+
+			final PinnedBitmap pinnedBitmap = new PinnedBitmap(cacheName, bitmap);
+			pinnedByBitmap.put(bitmap, pinnedBitmap);
+			if (!pinnedByName.containsKey(cacheName))
+				pinnedByName.put(cacheName, pinnedBitmap);
+			pinnedSize += getBitmapSize(bitmap);
+		}
+	}
+
+	/**
+	 * Remembers which size of image is in memory cache, so smaller sizes can be made from it. See {@link #getFromLargerVariant(ImageInfo)}.
+	 */
+	protected void addVariant(ImageInfo imageInfo, MemoryPartition partition, Bitmap bitmap)
 	{
-		if (!bitmapFile.exists())
+		final ImageSettings imageSettings = imageInfo.getImageSettings();
+		final Variant variant = new Variant(imageInfo.getCacheName(), imageInfo.getBitmapName(), partition, imageSettings, bitmap.getWidth(),
+				bitmap.getHeight(), imageInfo.getSourceWidth(), imageInfo.getSourceHeight());
+		synchronized (variantsByBitmapName)
 		{
-			FileOutputStream fos = new FileOutputStream(bitmapFile, false);
-			bitmap.compress(DEFAULT_COMPRESS_FORMAT, DEFAULT_COMPRESS_QUALITY, fos);
+			final Variant previous = variantsByCacheName.put(variant.cacheName, variant);
+			List<Variant> variants = variantsByBitmapName.get(variant.bitmapName);
+			if (variants == null)
+			{
+				variants = new ArrayList<Variant>(2);
+				variantsByBitmapName.put(variant.bitmapName, variants);
+			}
+			else if (previous != null)
+			{
+				variants.remove(previous);
+			}
+			variants.add(variant);
+		}
+	}
+
+	protected void removeVariant(String cacheName)
+	{
+		synchronized (variantsByBitmapName)
+		{
+			final Variant variant = variantsByCacheName.remove(cacheName);
+			if (variant == null)
+				return;
+
+			final List<Variant> variants = variantsByBitmapName.get(variant.bitmapName);
+			if (variants != null && variants.remove(variant) && variants.isEmpty())
+				variantsByBitmapName.remove(variant.bitmapName);
+		}
+	}
+
+	/**
+	 * Variant is used only if it was made with the same {@link ImageProcessor}, {@link ImageSettings#getDownSampleBy()} and
+	 * {@link ImageSettings#isScaleUp()}, and it was not scaled up. Otherwise scaled down copy would be blurrier or sharper than decoding the original.
+	 * 
+	 * @return Smallest variant that can be scaled down to given settings or {@code null}.
+	 */
+	protected Variant findLargerVariant(String bitmapName, ImageSettings imageSettings)
+	{
+		final int reqWidth = imageSettings.getWidth();
+		final int reqHeight = imageSettings.getHeight();
+		final SizeType sizeType = imageSettings.getSizeType();
+
+		// Image is not scaled, so there is nothing bigger
+		if (sizeType == SizeType.NONE || reqWidth <= 0 || reqHeight <= 0)
+			return null;
+
+		final String processorId = imageSettings.getImageProcessor() != null ? imageSettings.getImageProcessor().getUniqueId() : null;
+		Variant best = null;
+		synchronized (variantsByBitmapName)
+		{
+			final List<Variant> variants = variantsByBitmapName.get(bitmapName);
+			if (variants == null)
+				return null;
+
+			for (int i = 0, size = variants.size(); i < size; i++)
+			{
+				final Variant variant = variants.get(i);
+				if (processorId == null ? variant.processorId != null : !processorId.equals(variant.processorId))
+					continue;
+
+				if (variant.isUpscaled || variant.downSampleBy != imageSettings.getDownSampleBy() || variant.scaleUp != imageSettings.isScaleUp())
+					continue;
+
+				// Cropped variant has only the middle part, so it's good only for the same aspect ratio
+				if (variant.sizeType == SizeType.FILL_CROP
+						&& (sizeType != SizeType.FILL_CROP || variant.width != variant.reqWidth || variant.height != variant.reqHeight || (long) variant.width
+								* reqHeight != (long) variant.height * reqWidth))
+					continue;
+
+				if (getVariantScale(variant.width, variant.height, reqWidth, reqHeight, sizeType) >= 1)
+					continue;
+
+				if (best == null || (long) variant.width * variant.height < (long) best.width * best.height)
+					best = variant;
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Draws scaled down copy of the source the same way {@link ScaledBitmapParser} would scale the original.
+	 * 
+	 * @return New bitmap or {@code null} if source is not bigger than needed.
+	 */
+	protected Bitmap scaleVariant(Bitmap source, ImageSettings imageSettings)
+	{
+		final int width = source.getWidth();
+		final int height = source.getHeight();
+		final int reqWidth = imageSettings.getWidth();
+		final int reqHeight = imageSettings.getHeight();
+		final float scale = getVariantScale(width, height, reqWidth, reqHeight, imageSettings.getSizeType());
+		if (scale >= 1)
+			return null;
+
+		int scaledWidth = (int) (width * scale);
+		int scaledHeight = (int) (height * scale);
+		if (imageSettings.getSizeType() == SizeType.FILL_CROP)
+		{
+			scaledWidth = Math.min(scaledWidth, reqWidth);
+			scaledHeight = Math.min(scaledHeight, reqHeight);
+		}
+		if (scaledWidth <= 0 || scaledHeight <= 0)
+			return null;
+
+		// Part of source that will be visible. It's centered, same as crop in ScaledBitmapParser.
+		final int sourceWidth = Math.min(width, Math.round(scaledWidth / scale));
+		final int sourceHeight = Math.min(height, Math.round(scaledHeight / scale));
+		final int left = (width - sourceWidth) / 2;
+		final int top = (height - sourceHeight) / 2;
+
+		final Bitmap bitmap = Bitmap.createBitmap(scaledWidth, scaledHeight, source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888);
+		final Canvas canvas = new Canvas(bitmap);
+		canvas.drawBitmap(source, new Rect(left, top, left + sourceWidth, top + sourceHeight), new Rect(0, 0, scaledWidth, scaledHeight), new Paint(
+				Paint.FILTER_BITMAP_FLAG));
+		return bitmap;
+	}
+
+	/**
+	 * @return Scale that {@link ScaledBitmapParser} would use to get required size from bitmap of given size.
+	 */
+	protected static float getVariantScale(int width, int height, int reqWidth, int reqHeight, SizeType sizeType)
+	{
+		if (width <= 0 || height <= 0)
+			return 1;
+
+		final float widthScale = (float) reqWidth / (float) width;
+		final float heightScale = (float) reqHeight / (float) height;
+		switch (sizeType)
+		{
+			case MAX:
+				return Math.min(widthScale, heightScale);
+
+			case FILL:
+			case FILL_CROP:
+				return Math.max(widthScale, heightScale);
+
+			default:
+				return 1;
+		}
+	}
+
+	/**
+	 * Format is chosen by {@link ImageSettings#getCompressFormat()}, then by {@link CompressFormatProvider} processor and then by
+	 * {@link Bitmap#hasAlpha()}.
+	 */
+	protected CompressFormat getCompressFormat(ImageInfo imageInfo, Bitmap bitmap)
+	{
+		final ImageSettings imageSettings = imageInfo.getImageSettings();
+		if (imageSettings.getCompressFormat() != null)
+			return imageSettings.getCompressFormat();
+
+		final ImageProcessor imageProcessor = imageSettings.getImageProcessor();
+		if (imageProcessor instanceof CompressFormatProvider)
+		{
+			final CompressFormat compressFormat = ((CompressFormatProvider) imageProcessor).getCompressFormat(bitmap);
+			if (compressFormat != null)
+				return compressFormat;
+		}
+
+		return bitmap.hasAlpha() ? cacheSettings.getTransparentCompressFormat() : cacheSettings.getOpaqueCompressFormat();
+	}
+
+	/**
+	 * @return {@code true} if bitmap should be stored uncompressed. See {@link CacheSettings#setRawFileMaxSize(int)}.
+	 */
+	protected boolean isRawFile(ImageInfo imageInfo, Bitmap bitmap)
+	{
+		return getBitmapSize(bitmap) <= cacheSettings.getRawFileMaxSize() && imageInfo.getImageSettings().getCompressFormat() == null
+				&& RawBitmapFile.canWrite(bitmap);
+	}
+
+	protected int getCompressQuality(ImageInfo imageInfo)
+	{
+		final int compressQuality = imageInfo.getImageSettings().getCompressQuality();
+		return compressQuality >= 0 ? compressQuality : cacheSettings.getCompressQuality();
+	}
+
+	/**
+	 * @return File for processed image. It's not checked if it exists.
+	 */
+	protected File getProcessedFile(ImageInfo imageInfo)
+	{
+		final File file = new File(getProcessedCacheDir(), imageInfo.getCacheName());
+		if (!cacheSettings.isMigrateLegacyNames() || getProcessedDiskCache().contains(file.getName()))
+			return file;
+
+		final String legacyBitmapName = imageInfo.getLegacyBitmapName();
+		if (legacyBitmapName != null)
+			migrateLegacyFile(new File(file.getParentFile(), ImageInfo.getCacheName(imageInfo.getSettingsName(), legacyBitmapName)), file, getProcessedDiskCache());
+		return file;
+	}
+
+	/**
+	 * @return File for original image. It's not checked if it exists.
+	 */
+	protected File getOriginalCacheFile(ImageInfo imageInfo)
+	{
+		final File file = new File(getOriginalCacheDir(), imageInfo.getBitmapName());
+		if (!cacheSettings.isMigrateLegacyNames() || getOriginalDiskCache().contains(file.getName()))
+			return file;
+
+		final String legacyBitmapName = imageInfo.getLegacyBitmapName();
+		if (legacyBitmapName != null)
+			migrateLegacyFile(new File(file.getParentFile(), legacyBitmapName), file, getOriginalDiskCache());
+		return file;
+	}
+
+	/**
+	 * Renames file that was cached by older versions, so it's not lost when names change. Legacy names are checked only after current name was not found.
+	 */
+	protected void migrateLegacyFile(File legacyFile, File file, DiskCache diskCache)
+	{
+		if (legacyFile.equals(file) || !diskCache.contains(legacyFile.getName()) || !legacyFile.renameTo(file))
+			return;
+
+		diskCache.onRemove(legacyFile.getName());
+		diskCache.onWrite(file.getName(), file);
+		if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
+			Log.i(TAG, "Migrated file cache name [" + legacyFile.getName() + " -> " + file.getName() + "]");
+	}
+
+	protected MemoryCache<String, Bitmap> createMemoryCache(int maxSize)
+	{
+		switch (cacheSettings.getMemoryCachePolicy())
+		{
+			case TINY_LFU:
+				return new TinyLfuCache<String, Bitmap>(maxSize, maxSize / AVERAGE_BITMAP_SIZE)
+				{
+					@Override
+					protected int sizeOf(String key, Bitmap bitmap)
+					{
+						return getBitmapSize(bitmap);
+					}
+
+					@Override
+					protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue, boolean isShared)
+					{
+						onMemoryEntryRemoved(evicted, key, oldValue, newValue, isShared);
+					}
+				};
+
+			default:
+				return new StripedLruCache<String, Bitmap>(maxSize)
+				{
+					@Override
+					protected int sizeOf(String key, Bitmap bitmap)
+					{
+						return getBitmapSize(bitmap);
+					}
+
+					@Override
+					protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue, boolean isShared)
+					{
+						onMemoryEntryRemoved(evicted, key, oldValue, newValue, isShared);
+					}
+				};
+		}
+	}
+
+	/**
+	 * @param name
+	 *            Name of partition or {@code null}.
+	 * @return Partition with given name. Default partition if name is {@code null} or unknown.
+	 */
+	protected MemoryPartition getPartition(String name)
+	{
+		if (name == null)
+			return defaultPartition;
+
+		final MemoryPartition partition = memoryPartitionsByName.get(name);
+		return partition != null ? partition : defaultPartition;
+	}
+
+	protected MemoryPartition getPartition(ImageInfo imageInfo)
+	{
+		return getPartition(imageInfo.getImageSettings().getMemoryPartition());
+	}
+
+	/**
+	 * Puts bitmap to partition if there is no bitmap with the same name. Partitions can borrow only space that default partition doesn't use, and default
+	 * partition takes it back before evicting its own bitmaps. Budgets are kept approximately when several threads put at the same time.
+	 * 
+	 * @param isPinned
+	 *            {@code true} to pin bitmap if it was added.
+	 * @return Bitmap that is already in partition or {@code null} if bitmap was added.
+	 */
+	protected Bitmap putToPartition(MemoryPartition partition, String cacheName, Bitmap bitmap, boolean isPinned)
+	{
+		if (partition == defaultPartition && memoryPartitions.length > 1)
+			reclaimBorrowed(getBitmapSize(bitmap));
+
+		final Bitmap existing = partition.memoryCache.putIfAbsent(cacheName, bitmap, isPinned);
+		if (existing == null && partition.canBorrow)
+			partition.trimBorrowed(getBorrowLimit(partition));
+		return existing;
+	}
+
+	/**
+	 * @return Size that partition can borrow from default partition right now.
+	 */
+	protected int getBorrowLimit(MemoryPartition partition)
+	{
+		int limit = defaultPartition.getMaxSize() - defaultPartition.getSize();
+		for (int i = 1; i < memoryPartitions.length; i++)
+		{
+			if (memoryPartitions[i] != partition)
+				limit -= memoryPartitions[i].getBorrowedSize();
+		}
+		return Math.max(0, limit);
+	}
+
+	/**
+	 * Makes partitions give back borrowed space until default partition has given size free.
+	 */
+	protected void reclaimBorrowed(int size)
+	{
+		int excess = defaultPartition.getSize() + size - defaultPartition.getMaxSize();
+		for (int i = 1; i < memoryPartitions.length; i++)
+			excess += memoryPartitions[i].getBorrowedSize();
+
+		for (int i = 1; i < memoryPartitions.length && excess > 0; i++)
+		{
+			final MemoryPartition partition = memoryPartitions[i];
+			final int borrowedSize = partition.getBorrowedSize();
+			if (borrowedSize == 0)
+				continue;
+
+			final int returnedSize = Math.min(borrowedSize, excess);
+			partition.trimBorrowed(borrowedSize - returnedSize);
+			excess -= returnedSize;
+
+			if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
+				Log.i(TAG, "Borrowed memory taken back from partition " + partition.getName() + ": " + returnedSize + " bytes");
+		}
+	}
+
+	protected void resizePartitions(float percent)
+	{
+		defaultPartition.resize(percent, 0);
+		for (int i = 1; i < memoryPartitions.length; i++)
+			memoryPartitions[i].resize(percent, defaultPartition.getMaxSize());
+	}
+
+	/**
+	 * Must be called on main thread.
+	 */
+	protected void trim(float percent, boolean clearPool, boolean pausePrefetch)
+	{
+		// Caches only shrink here. They grow back when pressure is gone.
+		handler.removeCallbacks(growRunnable);
+		if (percent < memorySizePercent)
+		{
+			memorySizePercent = percent;
+			resizePartitions(percent);
+		}
+
+		if (clearPool)
+			bitmapPool.resize(0);
+		else
+			bitmapPool.resize(Math.min(bitmapPool.getMaxSize(), (int) (cacheSettings.getBitmapPoolSize() * percent)));
+
+		if (pausePrefetch)
+			isPrefetchPaused = true;
+
+		handler.postDelayed(growRunnable, GROW_DELAY_MILLIS);
+	}
+
+	/**
+	 * Grows caches by one step after memory pressure eased. Must be called on main thread.
+	 */
+	protected void grow()
+	{
+		memorySizePercent = Math.min(1.0f, memorySizePercent + GROW_STEP);
+		resizePartitions(memorySizePercent);
+		bitmapPool.resize((int) (cacheSettings.getBitmapPoolSize() * memorySizePercent));
+
+		if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
+			Log.i(TAG, "Memory pressure eased. Memory cache: " + (int) (memorySizePercent * 100) + "%");
+
+		if (isPrefetchPaused)
+		{
+			isPrefetchPaused = false;
+			final MemoryPressureListener[] listeners = memoryPressureListeners.toArray(new MemoryPressureListener[memoryPressureListeners.size()]);
+			memoryPressureListeners.clear();
+			for (MemoryPressureListener listener : listeners)
+				listener.onMemoryPressureEased();
+		}
+
+		if (memorySizePercent < 1.0f)
+			handler.postDelayed(growRunnable, GROW_DELAY_MILLIS);
+	}
+
+	@TargetApi(12)
+	protected int getBitmapSize(Bitmap bitmap)
+	{
+		if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.HONEYCOMB_MR1)
+		{
+			return bitmap.getByteCount();
+		}
+		// Pre HC-MR1
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+	/**
+	 * Evicted and replaced bitmaps that are not pinned and were never given out are put to {@link BitmapPool}, so their memory is reused by the next
+	 * decode. Bitmaps that were given to {@code getBitmap()} and {@code loadAsync()} callers, listeners or views that were detached while showing them are
+	 * marked as shared and are left to GC, because reusing them would overwrite what they draw. Views that show something else don't need the old bitmap.
+	 */
+	protected void onMemoryEntryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue, boolean isShared)
+	{
+		// Evicted bitmap can't be scaled down anymore. Pinned bitmaps are never evicted, so their variants stay.
+		if (evicted)
+			removeVariant(key);
+
+		// Bitmap that pool can't reuse is left to GC, not recycled, in case something untracked still draws it
+		if (!isShared && oldValue != newValue)
+			bitmapPool.put(oldValue);
+	}
+
+	/**
+	 * Writes bitmap to temp file and renames it when it's complete, so readers never see partially written file. If another thread is writing the same
+	 * file, waits for it to finish.
+	 * 
+	 * @return {@code true} if file was written; {@code false} if it's already in cache.
+	 */
+	protected boolean saveBitmapToFile(final Bitmap bitmap, final File bitmapFile, CompressFormat compressFormat, int compressQuality) throws IOException
+	{
+		final DiskCache diskCache = getProcessedDiskCache();
+		final File tempFile = diskCache.beginWrite(bitmapFile.getName());
+		if (tempFile == null)
+			return false;
+
+		boolean isDone = false;
+		FileOutputStream fos = null;
+		try
+		{
+			fos = new FileOutputStream(tempFile, false);
+			if (!bitmap.compress(compressFormat, compressQuality, fos))
+				throw new IOException("Failed compressing bitmap");
 			fos.close();
+			fos = null;
+
+			isDone = true;
+			if (!diskCache.commitWrite(bitmapFile.getName(), tempFile))
+				throw new IOException("Failed renaming " + tempFile.getName() + " to " + bitmapFile.getName());
 			return true;
 		}
-		return false;
+		finally
+		{
+			closeSilently(fos);
+			if (!isDone)
+				diskCache.abortWrite(bitmapFile.getName(), tempFile);
+		}
+	}
+
+	/**
+	 * Writes bitmap pixels the same way as {@link #saveBitmapToFile(Bitmap, File, CompressFormat, int)}. See {@link RawBitmapFile}.
+	 * 
+	 * @return {@code true} if file was written; {@code false} if it's already in cache.
+	 */
+	protected boolean saveRawBitmapToFile(final Bitmap bitmap, final File bitmapFile) throws IOException
+	{
+		final DiskCache diskCache = getProcessedDiskCache();
+		final File tempFile = diskCache.beginWrite(bitmapFile.getName());
+		if (tempFile == null)
+			return false;
+
+		boolean isDone = false;
+		try
+		{
+			RawBitmapFile.write(bitmap, tempFile);
+
+			isDone = true;
+			if (!diskCache.commitWrite(bitmapFile.getName(), tempFile))
+				throw new IOException("Failed renaming " + tempFile.getName() + " to " + bitmapFile.getName());
+			return true;
+		}
+		finally
+		{
+			if (!isDone)
+				diskCache.abortWrite(bitmapFile.getName(), tempFile);
+		}
+	}
+
+	/**
+	 * Checks processed file that could not be decoded. Only files that are not images or are not complete are broken. If file cannot be checked, it's
+	 * assumed to be fine.
+	 */
+	protected boolean isBrokenFile(File bitmapFile)
+	{
+		try
+		{
+			if (RawBitmapFile.isRawBitmapFile(bitmapFile))
+				return !RawBitmapFile.isComplete(bitmapFile);
+
+			final BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inJustDecodeBounds = true;
+			BitmapFactory.decodeFile(bitmapFile.getAbsolutePath(), options);
+			if (options.outWidth <= 0 || options.outHeight <= 0)
+				return true;
+
+			return isTruncated(bitmapFile, options.outMimeType);
+		}
+		catch (IOException e)
+		{
+			if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
+				Log.w(TAG, "Failed checking processed file. [" + bitmapFile.getName() + "]", e);
+			return false;
+		}
+		catch (OutOfMemoryError e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Checks that file ends the way complete file of its format does. Decoder can read bounds from the header of file that is cut short. Only formats that
+	 * {@link CompressFormat} writes are checked.
+	 */
+	protected static boolean isTruncated(File file, String mimeType) throws IOException
+	{
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try
+		{
+			final long length = randomAccessFile.length();
+			if ("image/webp".equals(mimeType))
+			{
+				// RIFF header has little endian size of the rest of the file
+				if (length < 8)
+					return true;
+				randomAccessFile.seek(4);
+				final long riffSize = Integer.reverseBytes(randomAccessFile.readInt()) & 0xFFFFFFFFL;
+				return length < riffSize + 8;
+			}
+
+			final byte[] end;
+			if ("image/jpeg".equals(mimeType))
+				end = JPEG_END;
+			else if ("image/png".equals(mimeType))
+				end = PNG_END;
+			else
+				return false;
+
+			if (length < end.length)
+				return true;
+			final byte[] buffer = new byte[end.length];
+			randomAccessFile.seek(length - end.length);
+			randomAccessFile.readFully(buffer);
+			return !Arrays.equals(buffer, end);
+		}
+		finally
+		{
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * @return Bitmap or {@code null} if file is compressed or cannot be read.
+	 */
+	protected Bitmap readRawBitmapFile(File bitmapFile)
+	{
+		try
+		{
+			return RawBitmapFile.read(bitmapFile, bitmapPool);
+		}
+		catch (IOException e)
+		{
+			if (BuildConfig.DEBUG && cacheSettings.isLoggingOn())
+				Log.w(TAG, "Failed reading raw file. [" + bitmapFile.getName() + "]", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Copies file to original images file cache the same way as {@link #saveBitmapToFile(Bitmap, File, CompressFormat, int)}.
+	 * 
+	 * @return {@code true} if file was copied; {@code false} if it's already in cache.
+	 */
+	protected boolean copyToFile(final File file, final File bitmapFile) throws IOException
+	{
+		final DiskCache diskCache = getOriginalDiskCache();
+		final File tempFile = diskCache.beginWrite(bitmapFile.getName());
+		if (tempFile == null)
+			return false;
+
+		boolean isDone = false;
+		try
+		{
+			copy(file, tempFile);
+
+			isDone = true;
+			if (!diskCache.commitWrite(bitmapFile.getName(), tempFile))
+				throw new IOException("Failed renaming " + tempFile.getName() + " to " + bitmapFile.getName());
+			return true;
+		}
+		finally
+		{
+			if (!isDone)
+				diskCache.abortWrite(bitmapFile.getName(), tempFile);
+		}
 	}
 
 	protected void addNomediaFile(File dir)
@@ -402,4 +1638,127 @@ public class ImageCache
 			Log.w(TAG, "Problem closing stream ", e);
 		}
 	}
-}
\ No newline at end of file
+
+	// TrimCallbacks
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Forwards system memory callbacks to {@link ImageCache}. Separate class, because {@link ComponentCallbacks2} cannot be registered before Ice Cream
+	 * Sandwich.
+	 */
+	@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+	protected static class TrimCallbacks implements ComponentCallbacks2
+	{
+		protected final ImageCache	imageCache;
+
+		public static void register(Context context, ImageCache imageCache)
+		{
+			context.registerComponentCallbacks(new TrimCallbacks(imageCache));
+		}
+
+		private TrimCallbacks(ImageCache imageCache)
+		{
+			this.imageCache = imageCache;
+		}
+
+		@Override
+		public void onTrimMemory(int level)
+		{
+			imageCache.onTrimMemory(level);
+		}
+
+		@Override
+		public void onLowMemory()
+		{
+			imageCache.onLowMemory();
+		}
+
+		@Override
+		public void onConfigurationChanged(Configuration newConfig)
+		{
+		}
+	}
+
+	// MemoryPressureListener
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	public static interface MemoryPressureListener
+	{
+		/**
+		 * Called on main thread when pre-caching can continue.
+		 */
+		public void onMemoryPressureEased();
+	}
+
+	// Variant
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Size of image that is in memory cache.
+	 */
+	protected static class Variant
+	{
+		protected final String			cacheName;
+		protected final String			bitmapName;
+		protected final MemoryPartition	partition;
+		protected final String			processorId;
+		protected final SizeType		sizeType;
+		protected final int				reqWidth;
+		protected final int				reqHeight;
+		protected final int				width;
+		protected final int				height;
+		protected final int				downSampleBy;
+		protected final boolean			scaleUp;
+
+		/** Size of original image or 0 if it's not known. */
+		protected final int				sourceWidth;
+		protected final int				sourceHeight;
+
+		/** {@code true} if bitmap is bigger than original image or it might be, because original size is not known. */
+		protected final boolean			isUpscaled;
+
+		public Variant(String cacheName, String bitmapName, MemoryPartition partition, ImageSettings imageSettings, int width, int height, int sourceWidth,
+				int sourceHeight)
+		{
+			this.cacheName = cacheName;
+			this.bitmapName = bitmapName;
+			this.partition = partition;
+			this.processorId = imageSettings.getImageProcessor() != null ? imageSettings.getImageProcessor().getUniqueId() : null;
+			this.sizeType = imageSettings.getSizeType();
+			this.reqWidth = imageSettings.getWidth();
+			this.reqHeight = imageSettings.getHeight();
+			this.width = width;
+			this.height = height;
+			this.downSampleBy = imageSettings.getDownSampleBy();
+			this.scaleUp = imageSettings.isScaleUp();
+			this.sourceWidth = sourceWidth;
+			this.sourceHeight = sourceHeight;
+
+			// Parser scales up only when it's allowed
+			if (sourceWidth <= 0 || sourceHeight <= 0)
+				this.isUpscaled = scaleUp;
+			else
+				this.isUpscaled = width > sourceWidth || height > sourceHeight;
+		}
+	}
+
+	// PinnedBitmap
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Bitmap that is pinned while it's not in memory cache.
+	 */
+	protected static class PinnedBitmap
+	{
+		protected final String	cacheName;
+		protected final Bitmap	bitmap;
+		protected int			refCount;
+
+		public PinnedBitmap(String cacheName, Bitmap bitmap)
+		{
+			this.cacheName = cacheName;
+			this.bitmap = bitmap;
+			this.refCount = 1;
+		}
+	}
+}
@@ -0,0 +1,258 @@
+package com.code44.imageloader.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base class for memory caches used by {@link ImageCache}. Sizes are measured using {@link #sizeOf(Object, Object)} and removed entries are reported to
+ * {@link #entryRemoved(boolean, Object, Object, Object, boolean)}, similar to {@code LruCache}. Implementations must be thread safe and
+ * {@link #get(Object)} should not block.
+ * <p>
+ * Values that were given to code that might keep them are marked with {@link #markShared(Object, Object)}, so when they are removed it's known whether
+ * anything else can still use them.
+ * </p>
+ * <p>
+ * Entries can be pinned while they are used. Pinned entries are never evicted and their size is counted in {@link #pinnedSize()} instead of
+ * {@link #size()}, so they don't take space from entries that can be evicted. When the last pin is released, entry becomes the most recently used.
+ * </p>
+ *
+ * @author Mantas Varnagiris
+ */
+public abstract class MemoryCache<K, V>
+{
+	protected final AtomicLong	hitCount;
+	protected final AtomicLong	missCount;
+	protected final AtomicLong	putCount;
+	protected final AtomicLong	evictionCount;
+	protected volatile int		maxSize;
+
+	// Constructors
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * @param maxSize
+	 *            Maximum sum of {@link #sizeOf(Object, Object)} of all entries.
+	 */
+	public MemoryCache(int maxSize)
+	{
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("maxSize <= 0");
+
+		this.hitCount = new AtomicLong();
+		this.missCount = new AtomicLong();
+		this.putCount = new AtomicLong();
+		this.evictionCount = new AtomicLong();
+		this.maxSize = maxSize;
+	}
+
+	// Abstract methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * @param key
+	 *            Key.
+	 * @return Value or {@code null} if there is no value for the key.
+	 */
+	public abstract V get(K key);
+
+	/**
+	 * Same as {@link #get(Object)}, but doesn't count as a request. Use it to check again for a key that was already requested.
+	 *
+	 * @param key
+	 *            Key.
+	 * @return Value or {@code null} if there is no value for the key. Doesn't change eviction order, frequency or statistics.
+	 */
+	public abstract V peek(K key);
+
+	/**
+	 * @param key
+	 *            Key.
+	 * @return {@code true} if there is a value for the key. Doesn't change eviction order or statistics.
+	 */
+	public abstract boolean containsKey(K key);
+
+	/**
+	 * Puts value, replacing previous value for the key.
+	 *
+	 * @return Previous value or {@code null}.
+	 */
+	public abstract V put(K key, V value);
+
+	/**
+	 * Puts value only if there is no value for the key. Check and put is atomic.
+	 *
+	 * @return Value that is already in cache or {@code null} if given value was added.
+	 */
+	public abstract V putIfAbsent(K key, V value);
+
+	/**
+	 * Same as {@link #putIfAbsent(Object, Object)}, but value can be pinned in the same step, so it's not evicted before whoever put it is done with it.
+	 *
+	 * @param isPinned
+	 *            {@code true} to pin value if it was added. Must be matched by {@link #unpin(Object, Object)}.
+	 * @return Value that is already in cache or {@code null} if given value was added.
+	 */
+	public abstract V putIfAbsent(K key, V value, boolean isPinned);
+
+	/**
+	 * @return Removed value or {@code null}.
+	 */
+	public abstract V remove(K key);
+
+	/**
+	 * Pins entry, so it's not evicted. Pins are counted, every successful call must be matched by {@link #unpin(Object, Object)}.
+	 *
+	 * @param key
+	 *            Key.
+	 * @param value
+	 *            Value that must be in cache for the key.
+	 * @return {@code true} if entry was pinned; {@code false} if key doesn't map to this exact value.
+	 */
+	public abstract boolean pin(K key, V value);
+
+	/**
+	 * Releases pin made with {@link #pin(Object, Object)}. When the last pin is released, entries might be evicted.
+	 *
+	 * @param key
+	 *            Key.
+	 * @param value
+	 *            Value that was pinned.
+	 * @return {@code true} if pin was released; {@code false} if key doesn't map to this exact value or it's not pinned.
+	 */
+	public abstract boolean unpin(K key, V value);
+
+	/**
+	 * Marks value as given to code that might keep it, so it's reported as shared when it's removed. Doesn't block.
+	 *
+	 * @param key
+	 *            Key.
+	 * @param value
+	 *            Value that was given out.
+	 * @return {@code true} if value is marked; {@code false} if key doesn't map to this exact value anymore. Then value might have been reported as not
+	 *         shared already, so it must not be used.
+	 */
+	public abstract boolean markShared(K key, V value);
+
+	/**
+	 * Evicts entries that are not pinned until cache size is not bigger than {@code maxSize}.
+	 *
+	 * @param maxSize
+	 *            Size or -1 to remove all entries.
+	 */
+	public abstract void trimToSize(int maxSize);
+
+	/**
+	 * @return Sum of {@link #sizeOf(Object, Object)} of entries that are not pinned.
+	 */
+	public abstract int size();
+
+	/**
+	 * @return Sum of {@link #sizeOf(Object, Object)} of pinned entries.
+	 */
+	public abstract int pinnedSize();
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Removes all entries that are not pinned.
+	 */
+	public void evictAll()
+	{
+		trimToSize(-1);
+	}
+
+	/**
+	 * Changes maximum size. If cache is bigger than new size, entries are evicted.
+	 *
+	 * @param maxSize
+	 *            New maximum size.
+	 */
+	public void resize(int maxSize)
+	{
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("maxSize <= 0");
+
+		this.maxSize = maxSize;
+		trimToSize(maxSize);
+	}
+
+	public int maxSize()
+	{
+		return maxSize;
+	}
+
+	/**
+	 * @return Number of times {@link #get(Object)} returned a value.
+	 */
+	public long hitCount()
+	{
+		return hitCount.get();
+	}
+
+	/**
+	 * @return Number of times {@link #get(Object)} returned {@code null}.
+	 */
+	public long missCount()
+	{
+		return missCount.get();
+	}
+
+	/**
+	 * @return Number of values that were added.
+	 */
+	public long putCount()
+	{
+		return putCount.get();
+	}
+
+	/**
+	 * @return Number of values that were evicted.
+	 */
+	public long evictionCount()
+	{
+		return evictionCount.get();
+	}
+
+	// Object
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	@Override
+	public String toString()
+	{
+		final long hits = hitCount.get();
+		final long accesses = hits + missCount.get();
+		final long hitPercent = accesses != 0 ? (100 * hits / accesses) : 0;
+		return String.format("%s[maxSize=%d,hits=%d,misses=%d,evictions=%d,hitRate=%d%%]", getClass().getSimpleName(), maxSize, hits, missCount.get(),
+				evictionCount.get(), hitPercent);
+	}
+
+	// Protected methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * @return Size of entry in user defined units. Default implementation returns 1.
+	 */
+	protected int sizeOf(K key, V value)
+	{
+		return 1;
+	}
+
+	/**
+	 * Called for entries that were evicted, removed or replaced. Called without holding any locks.
+	 *
+	 * @param evicted
+	 *            {@code true} if entry was removed to make space.
+	 * @param key
+	 *            Key.
+	 * @param oldValue
+	 *            Value that was removed.
+	 * @param newValue
+	 *            New value for the key or {@code null}.
+	 * @param isShared
+	 *            {@code true} if value might still be used outside of cache, because it was marked with {@link #markShared(Object, Object)} or it was
+	 *            pinned.
+	 */
+	protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue, boolean isShared)
+	{
+	}
+}
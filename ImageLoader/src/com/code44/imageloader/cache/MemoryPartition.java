@@ -0,0 +1,159 @@
+package com.code44.imageloader.cache;
+
+import android.graphics.Bitmap;
+
+import com.code44.imageloader.ImageSettings;
+
+/**
+ * Part of memory cache with its own budget and eviction. Images are put to partition selected with {@link ImageSettings#setMemoryPartition(String)}, so
+ * big photos on one screen cannot evict small images (eg. avatars) that the rest of the app needs.
+ * <p>
+ * Partition that can borrow may grow over its budget while {@link CacheSettings#DEFAULT_MEMORY_PARTITION} has unused space. Borrowed space is given back
+ * before default partition evicts anything.
+ * </p>
+ * <p>
+ * Use getters for telemetry when tuning budgets.
+ * </p>
+ *
+ * @author Mantas Varnagiris
+ */
+public class MemoryPartition
+{
+	protected final String						name;
+	protected final int							configuredMaxSize;
+	protected final boolean						canBorrow;
+	protected final MemoryCache<String, Bitmap>	memoryCache;
+	protected volatile int						maxSize;
+
+	// Constructors
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	protected MemoryPartition(String name, int maxSize, boolean canBorrow, MemoryCache<String, Bitmap> memoryCache)
+	{
+		this.name = name;
+		this.configuredMaxSize = maxSize;
+		this.canBorrow = canBorrow;
+		this.memoryCache = memoryCache;
+		this.maxSize = maxSize;
+	}
+
+	// Object
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	@Override
+	public String toString()
+	{
+		final long hits = memoryCache.hitCount();
+		final long accesses = hits + memoryCache.missCount();
+		final long hitPercent = accesses != 0 ? (100 * hits / accesses) : 0;
+		return String.format("MemoryPartition[name=%s,size=%d,maxSize=%d,borrowed=%d,hits=%d,misses=%d,evictions=%d,hitRate=%d%%]", name, getSize(),
+				maxSize, getBorrowedSize(), hits, memoryCache.missCount(), memoryCache.evictionCount(), hitPercent);
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @return {@code true} if partition can use unused space of {@link CacheSettings#DEFAULT_MEMORY_PARTITION}.
+	 */
+	public boolean canBorrow()
+	{
+		return canBorrow;
+	}
+
+	/**
+	 * @return Size in bytes of bitmaps in this partition. Pinned bitmaps are not counted.
+	 */
+	public int getSize()
+	{
+		return memoryCache.size();
+	}
+
+	/**
+	 * @return Size in bytes of pinned bitmaps in this partition. They are kept on top of the budget and are never evicted.
+	 */
+	public int getPinnedSize()
+	{
+		return memoryCache.pinnedSize();
+	}
+
+	/**
+	 * @return Budget in bytes. It's smaller than configured while caches are trimmed because of memory pressure.
+	 */
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+
+	/**
+	 * @return Size in bytes that is used over budget.
+	 */
+	public int getBorrowedSize()
+	{
+		return canBorrow ? Math.max(0, memoryCache.size() - maxSize) : 0;
+	}
+
+	/**
+	 * @return Number of times bitmap was found in this partition.
+	 */
+	public long getHitCount()
+	{
+		return memoryCache.hitCount();
+	}
+
+	/**
+	 * @return Number of times bitmap was not found in this partition.
+	 */
+	public long getMissCount()
+	{
+		return memoryCache.missCount();
+	}
+
+	/**
+	 * @return Number of bitmaps that were added to this partition.
+	 */
+	public long getPutCount()
+	{
+		return memoryCache.putCount();
+	}
+
+	/**
+	 * @return Number of bitmaps that were evicted from this partition to make space for others or to give back borrowed space.
+	 */
+	public long getEvictionCount()
+	{
+		return memoryCache.evictionCount();
+	}
+
+	// Protected methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * @param percent
+	 *            Part of configured budget to use.
+	 * @param borrowLimit
+	 *            Maximum size that can be borrowed. Ignored if partition cannot borrow.
+	 */
+	protected void resize(float percent, int borrowLimit)
+	{
+		maxSize = (int) (configuredMaxSize * percent);
+		if (percent == 0)
+			memoryCache.evictAll();
+		else
+			memoryCache.resize(Math.max(1, canBorrow ? maxSize + borrowLimit : maxSize));
+	}
+
+	/**
+	 * Evicts entries until borrowed size is not bigger than given size.
+	 */
+	protected void trimBorrowed(int borrowedSize)
+	{
+		if (canBorrow && getBorrowedSize() > borrowedSize)
+			memoryCache.trimToSize(maxSize + Math.max(0, borrowedSize));
+	}
+}
@@ -0,0 +1,242 @@
+package com.code44.imageloader.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+
+/**
+ * Stores uncompressed bitmap pixels in processed images file cache. Reading is a memory mapped copy instead of a decode, which is many times faster for
+ * small thumbnails, but files are as big as bitmaps in memory. See {@link CacheSettings#setRawFileMaxSize(int)}.
+ * <p>
+ * File is a 16 byte header followed by pixel rows exactly as {@link Bitmap#copyPixelsToBuffer(java.nio.Buffer)} writes them:
+ *
+ * <pre>
+ * int   magic "ILRP"
+ * byte  version
+ * byte  config (1 = ALPHA_8, 2 = RGB_565, 3 = ARGB_4444, 4 = ARGB_8888)
+ * byte  has alpha (0 or 1)
+ * byte  reserved
+ * int   width
+ * int   height
+ * </pre>
+ *
+ * Pixels are in native format of the device, so files should not be moved between devices.
+ * </p>
+ *
+ * @author Mantas Varnagiris
+ */
+public class RawBitmapFile
+{
+	protected static final int		MAGIC		= 0x494C5250;
+	protected static final byte		VERSION		= 1;
+	protected static final int		HEADER_SIZE	= 16;
+
+	private RawBitmapFile()
+	{
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * @return {@code true} if bitmap can be stored as raw file.
+	 */
+	public static boolean canWrite(Bitmap bitmap)
+	{
+		return bitmap.getConfig() != null && getConfigCode(bitmap.getConfig()) != 0 && !bitmap.isRecycled();
+	}
+
+	/**
+	 * Writes bitmap pixels to file. File is mapped, so pixels are copied to file without allocating a buffer. Pixels are forced to storage before this
+	 * returns, so file that is renamed afterwards is never left with missing pixels if device loses power.
+	 *
+	 * @param bitmap
+	 *            Bitmap to write. See {@link #canWrite(Bitmap)}.
+	 * @param file
+	 *            File to write to.
+	 */
+	public static void write(Bitmap bitmap, File file) throws IOException
+	{
+		final int pixelsSize = bitmap.getRowBytes() * bitmap.getHeight();
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try
+		{
+			randomAccessFile.setLength(HEADER_SIZE + pixelsSize);
+			final MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + pixelsSize);
+			buffer.putInt(MAGIC);
+			buffer.put(VERSION);
+			buffer.put(getConfigCode(bitmap.getConfig()));
+			buffer.put((byte) (bitmap.hasAlpha() ? 1 : 0));
+			buffer.put((byte) 0);
+			buffer.putInt(bitmap.getWidth());
+			buffer.putInt(bitmap.getHeight());
+			bitmap.copyPixelsToBuffer(buffer);
+
+			// Mapped pages are written back whenever the system decides. Rename can reach storage before them.
+			buffer.force();
+		}
+		finally
+		{
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Reads bitmap from file written with {@link #write(Bitmap, File)}. Bitmap from {@link BitmapPool} is reused if there is one of the same size.
+	 *
+	 * @param file
+	 *            File to read.
+	 * @param bitmapPool
+	 *            Pool to take bitmap from or {@code null}.
+	 * @return Bitmap or {@code null} if file is not a raw bitmap file (eg. it was compressed) or it's not complete.
+	 */
+	@TargetApi(12)
+	public static Bitmap read(File file, BitmapPool bitmapPool) throws IOException
+	{
+		final FileInputStream in = new FileInputStream(file);
+		try
+		{
+			final FileChannel channel = in.getChannel();
+			final long length = channel.size();
+			if (length < HEADER_SIZE)
+				return null;
+
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			if (buffer.getInt() != MAGIC || buffer.get() != VERSION)
+				return null;
+
+			final Bitmap.Config config = getConfig(buffer.get());
+			final boolean hasAlpha = buffer.get() != 0;
+			buffer.get();
+			final int width = buffer.getInt();
+			final int height = buffer.getInt();
+			if (config == null || width <= 0 || height <= 0 || length - HEADER_SIZE < (long) width * height * BitmapPool.getBytesPerPixel(config))
+				return null;
+
+			Bitmap bitmap = bitmapPool != null ? bitmapPool.getExact(width, height, config) : null;
+			if (bitmap == null)
+				bitmap = Bitmap.createBitmap(width, height, config);
+
+			// Rows might be padded differently if file was written with another version of the platform
+			if (length - HEADER_SIZE != (long) bitmap.getRowBytes() * height)
+			{
+				if (bitmapPool == null || !bitmapPool.put(bitmap))
+					bitmap.recycle();
+				return null;
+			}
+
+			bitmap.copyPixelsFromBuffer(buffer);
+			if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.HONEYCOMB_MR1)
+				bitmap.setHasAlpha(hasAlpha);
+			return bitmap;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * @param file
+	 *            File to check.
+	 * @return {@code true} if file starts like a raw bitmap file. It might still be broken. See {@link #isComplete(File)}.
+	 */
+	public static boolean isRawBitmapFile(File file) throws IOException
+	{
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try
+		{
+			return randomAccessFile.length() >= HEADER_SIZE && randomAccessFile.readInt() == MAGIC;
+		}
+		finally
+		{
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Checks file without reading pixels. Use it to find out why {@link #read(File, BitmapPool)} returned {@code null}.
+	 * 
+	 * @param file
+	 *            File to check.
+	 * @return {@code true} if header is valid and file has all pixel rows padded the way this version of the platform pads them; {@code false} otherwise.
+	 */
+	public static boolean isComplete(File file) throws IOException
+	{
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try
+		{
+			final long length = randomAccessFile.length();
+			if (length < HEADER_SIZE || randomAccessFile.readInt() != MAGIC || randomAccessFile.readByte() != VERSION)
+				return false;
+
+			final Bitmap.Config config = getConfig(randomAccessFile.readByte());
+			randomAccessFile.readByte();
+			randomAccessFile.readByte();
+			final int width = randomAccessFile.readInt();
+			final int height = randomAccessFile.readInt();
+			if (config == null || width <= 0 || height <= 0)
+				return false;
+
+			final Bitmap row = Bitmap.createBitmap(width, 1, config);
+			final long rowBytes = row.getRowBytes();
+			row.recycle();
+			return length - HEADER_SIZE == rowBytes * height;
+		}
+		finally
+		{
+			randomAccessFile.close();
+		}
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private static byte getConfigCode(Bitmap.Config config)
+	{
+		switch (config)
+		{
+			case ALPHA_8:
+				return 1;
+
+			case RGB_565:
+				return 2;
+
+			case ARGB_4444:
+				return 3;
+
+			case ARGB_8888:
+				return 4;
+
+			default:
+				return 0;
+		}
+	}
+
+	private static Bitmap.Config getConfig(byte code)
+	{
+		switch (code)
+		{
+			case 1:
+				return Bitmap.Config.ALPHA_8;
+
+			case 2:
+				return Bitmap.Config.RGB_565;
+
+			case 3:
+				return Bitmap.Config.ARGB_4444;
+
+			case 4:
+				return Bitmap.Config.ARGB_8888;
+
+			default:
+				return null;
+		}
+	}
+}
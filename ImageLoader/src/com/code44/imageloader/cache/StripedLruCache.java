@@ -0,0 +1,488 @@
+package com.code44.imageloader.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LRU cache split into segments with separate locks, so threads working with different keys don't wait for each other.
+ * <p>
+ * {@link #get(Object)} never blocks. Value is read from a concurrent map and recency is updated only if segment lock is free, so when a segment is busy
+ * LRU order is approximate. Writes lock only the segment of the key. Every access stamps the entry from a shared counter. When cache grows over maximum
+ * size, eldest entries of all segments are compared by their stamps and the least recently used one is evicted. Pinned entries are taken out of access
+ * order, so eviction never sees them.
+ * </p>
+ * <p>
+ * {@link #sizeOf(Object, Object)} and {@link #entryRemoved(boolean, Object, Object, Object, boolean)} are called without holding any locks.
+ * </p>
+ *
+ * @author Mantas Varnagiris
+ */
+public class StripedLruCache<K, V> extends MemoryCache<K, V>
+{
+	protected static final int		DEFAULT_CONCURRENCY	= 4;
+
+	protected final Segment<K, V>[]	segments;
+	protected final int				segmentMask;
+	protected final AtomicInteger	size;
+	protected final AtomicInteger	pinnedSize;
+	protected final AtomicLong		accessClock;
+
+	// Constructors
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * @param maxSize
+	 *            Maximum sum of {@link #sizeOf(Object, Object)} of all entries.
+	 */
+	public StripedLruCache(int maxSize)
+	{
+		this(maxSize, DEFAULT_CONCURRENCY);
+	}
+
+	/**
+	 * @param maxSize
+	 *            Maximum sum of {@link #sizeOf(Object, Object)} of all entries.
+	 * @param concurrencyLevel
+	 *            Number of segments. Rounded up to power of 2.
+	 */
+	@SuppressWarnings("unchecked")
+	public StripedLruCache(int maxSize, int concurrencyLevel)
+	{
+		super(maxSize);
+		if (concurrencyLevel <= 0)
+			throw new IllegalArgumentException("concurrencyLevel <= 0");
+
+		int segmentCount = 1;
+		while (segmentCount < concurrencyLevel)
+			segmentCount <<= 1;
+
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++)
+			segments[i] = new Segment<K, V>();
+		this.segmentMask = segmentCount - 1;
+		this.size = new AtomicInteger();
+		this.pinnedSize = new AtomicInteger();
+		this.accessClock = new AtomicLong();
+	}
+
+	// MemoryCache
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * If value is found, it becomes the most recently used.
+	 */
+	@Override
+	public V get(K key)
+	{
+		if (key == null)
+			throw new NullPointerException("key == null");
+
+		final Segment<K, V> segment = segmentFor(key);
+		final Entry<K, V> entry = segment.entries.get(key);
+		if (entry == null)
+		{
+			missCount.incrementAndGet();
+			return null;
+		}
+
+		// Only reorder if nobody is writing to this segment
+		if (segment.tryLock())
+		{
+			try
+			{
+				if (entry.isLinked())
+				{
+					segment.moveToLast(entry);
+					entry.accessStamp = accessClock.incrementAndGet();
+				}
+			}
+			finally
+			{
+				segment.unlock();
+			}
+		}
+
+		hitCount.incrementAndGet();
+		return entry.value;
+	}
+
+	@Override
+	public V peek(K key)
+	{
+		if (key == null)
+			throw new NullPointerException("key == null");
+
+		final Entry<K, V> entry = segmentFor(key).entries.get(key);
+		return entry != null ? entry.value : null;
+	}
+
+	@Override
+	public boolean containsKey(K key)
+	{
+		if (key == null)
+			throw new NullPointerException("key == null");
+
+		return segmentFor(key).entries.containsKey(key);
+	}
+
+	@Override
+	public V put(K key, V value)
+	{
+		return put(key, value, false, false);
+	}
+
+	@Override
+	public V putIfAbsent(K key, V value)
+	{
+		return put(key, value, true, false);
+	}
+
+	@Override
+	public V putIfAbsent(K key, V value, boolean isPinned)
+	{
+		return put(key, value, true, isPinned);
+	}
+
+	@Override
+	public V remove(K key)
+	{
+		if (key == null)
+			throw new NullPointerException("key == null");
+
+		final Segment<K, V> segment = segmentFor(key);
+		final Entry<K, V> previous;
+		segment.lock();
+		try
+		{
+			previous = segment.entries.get(key);
+			if (previous != null)
+				segment.removeEntry(previous, size, pinnedSize);
+		}
+		finally
+		{
+			segment.unlock();
+		}
+
+		if (previous == null)
+			return null;
+
+		entryRemoved(false, key, previous.value, null, previous.isShared);
+		return previous.value;
+	}
+
+	@Override
+	public boolean pin(K key, V value)
+	{
+		if (key == null || value == null)
+			throw new NullPointerException("key == null || value == null");
+
+		final Segment<K, V> segment = segmentFor(key);
+		segment.lock();
+		try
+		{
+			final Entry<K, V> entry = segment.entries.get(key);
+			if (entry == null || entry.value != value)
+				return false;
+
+			if (entry.pinCount++ == 0)
+			{
+				segment.unlink(entry);
+				size.addAndGet(-entry.size);
+				pinnedSize.addAndGet(entry.size);
+			}
+			return true;
+		}
+		finally
+		{
+			segment.unlock();
+		}
+	}
+
+	@Override
+	public boolean unpin(K key, V value)
+	{
+		if (key == null || value == null)
+			throw new NullPointerException("key == null || value == null");
+
+		final Segment<K, V> segment = segmentFor(key);
+		final boolean isLastPin;
+		segment.lock();
+		try
+		{
+			final Entry<K, V> entry = segment.entries.get(key);
+			if (entry == null || entry.value != value || entry.pinCount == 0)
+				return false;
+
+			isLastPin = --entry.pinCount == 0;
+			if (isLastPin)
+			{
+				entry.accessStamp = accessClock.incrementAndGet();
+				segment.linkLast(entry);
+				pinnedSize.addAndGet(-entry.size);
+				size.addAndGet(entry.size);
+			}
+		}
+		finally
+		{
+			segment.unlock();
+		}
+
+		if (isLastPin)
+			trimToSize(maxSize);
+		return true;
+	}
+
+	@Override
+	public boolean markShared(K key, V value)
+	{
+		if (key == null || value == null)
+			throw new NullPointerException("key == null || value == null");
+
+		final Entry<K, V> entry = segmentFor(key).entries.get(key);
+		if (entry == null || entry.value != value)
+			return false;
+
+		// Entry is marked before checking if it's removed and removal is marked before checking if entry is shared, so one of them always sees the other
+		entry.isShared = true;
+		return !entry.isRemoved;
+	}
+
+	/**
+	 * Removes least recently used entries that are not pinned. Only one segment lock is held at a time.
+	 */
+	@Override
+	public void trimToSize(int maxSize)
+	{
+		while (size.get() > maxSize)
+		{
+			// Find segment which has the least recently used entry
+			Segment<K, V> oldestSegment = null;
+			long oldestStamp = Long.MAX_VALUE;
+			for (Segment<K, V> segment : segments)
+			{
+				segment.lock();
+				try
+				{
+					final Entry<K, V> eldest = segment.eldest();
+					if (eldest != null && eldest.accessStamp < oldestStamp)
+					{
+						oldestSegment = segment;
+						oldestStamp = eldest.accessStamp;
+					}
+				}
+				finally
+				{
+					segment.unlock();
+				}
+			}
+
+			if (oldestSegment == null)
+				return;
+
+			// Eldest could have changed since it was found. Then current eldest of that segment is evicted, which is still close enough.
+			final Entry<K, V> evicted;
+			oldestSegment.lock();
+			try
+			{
+				evicted = oldestSegment.eldest();
+				if (evicted != null)
+					oldestSegment.removeEntry(evicted, size, pinnedSize);
+			}
+			finally
+			{
+				oldestSegment.unlock();
+			}
+
+			if (evicted != null)
+			{
+				evictionCount.incrementAndGet();
+				entryRemoved(true, evicted.key, evicted.value, null, evicted.isShared);
+			}
+		}
+	}
+
+	@Override
+	public int size()
+	{
+		return size.get();
+	}
+
+	@Override
+	public int pinnedSize()
+	{
+		return pinnedSize.get();
+	}
+
+	// Protected methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	protected Segment<K, V> segmentFor(K key)
+	{
+		// Spread bits, so keys with similar hashes end up in different segments
+		int hash = key.hashCode();
+		hash ^= (hash >>> 20) ^ (hash >>> 12);
+		hash ^= (hash >>> 7) ^ (hash >>> 4);
+		return segments[hash & segmentMask];
+	}
+
+	protected V put(K key, V value, boolean onlyIfAbsent, boolean isPinned)
+	{
+		if (key == null || value == null)
+			throw new NullPointerException("key == null || value == null");
+
+		final Entry<K, V> entry = new Entry<K, V>(key, value, sizeOf(key, value));
+		final Segment<K, V> segment = segmentFor(key);
+		final Entry<K, V> previous;
+		segment.lock();
+		try
+		{
+			previous = segment.entries.get(key);
+			if (previous != null && onlyIfAbsent)
+				return previous.value;
+
+			if (previous != null)
+				segment.removeEntry(previous, size, pinnedSize);
+			if (isPinned)
+			{
+				entry.pinCount = 1;
+				pinnedSize.addAndGet(entry.size);
+			}
+			else
+			{
+				entry.accessStamp = accessClock.incrementAndGet();
+				segment.linkLast(entry);
+				size.addAndGet(entry.size);
+			}
+			segment.entries.put(key, entry);
+			putCount.incrementAndGet();
+		}
+		finally
+		{
+			segment.unlock();
+		}
+
+		if (previous != null)
+			entryRemoved(false, key, previous.value, value, previous.isShared);
+
+		trimToSize(maxSize);
+		return previous != null ? previous.value : null;
+	}
+
+	// Segment
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	@SuppressWarnings("serial")
+	protected static class Segment<K, V> extends ReentrantLock
+	{
+		/** Read without lock. */
+		protected final Map<K, Entry<K, V>>	entries	= new ConcurrentHashMap<K, Entry<K, V>>();
+
+		/**
+		 * Head of access ordered list of entries that are not pinned. Eldest entry is after it, the most recently used is before it. Guarded by this lock.
+		 */
+		protected final Entry<K, V>			head	= new Entry<K, V>(null, null, 0);
+
+		public Segment()
+		{
+			head.before = head;
+			head.after = head;
+		}
+
+		/**
+		 * @return The least recently used entry or {@code null} if segment is empty. Must be called holding this lock.
+		 */
+		protected Entry<K, V> eldest()
+		{
+			return head.after != head ? head.after : null;
+		}
+
+		/**
+		 * Must be called holding this lock.
+		 */
+		protected void linkLast(Entry<K, V> entry)
+		{
+			entry.after = head;
+			entry.before = head.before;
+			head.before.after = entry;
+			head.before = entry;
+		}
+
+		/**
+		 * Must be called holding this lock.
+		 */
+		protected void moveToLast(Entry<K, V> entry)
+		{
+			unlink(entry);
+			linkLast(entry);
+		}
+
+		/**
+		 * Removes entry from access order, lookup map and size. Must be called holding this lock.
+		 */
+		protected void removeEntry(Entry<K, V> entry, AtomicInteger size, AtomicInteger pinnedSize)
+		{
+			if (entry.pinCount > 0)
+			{
+				entry.isShared = true;
+				pinnedSize.addAndGet(-entry.size);
+			}
+			else
+			{
+				unlink(entry);
+				size.addAndGet(-entry.size);
+			}
+			entries.remove(entry.key);
+			entry.isRemoved = true;
+		}
+
+		/**
+		 * Must be called holding this lock.
+		 */
+		protected void unlink(Entry<K, V> entry)
+		{
+			entry.before.after = entry.after;
+			entry.after.before = entry.before;
+			entry.before = null;
+			entry.after = null;
+		}
+	}
+
+	// Entry
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	protected static class Entry<K, V>
+	{
+		protected final K			key;
+		protected final V			value;
+		protected final int			size;
+
+		/** Value of access clock when entry was last used. Guarded by segment lock. */
+		protected long				accessStamp;
+		/** Number of pins. Guarded by segment lock. */
+		protected int				pinCount;
+		/** See {@link MemoryCache#markShared(Object, Object)}. */
+		protected volatile boolean	isShared;
+		protected volatile boolean	isRemoved;
+		/** Neighbours in access order. {@code null} when entry is pinned or not in cache. Guarded by segment lock. */
+		protected Entry<K, V>		before;
+		protected Entry<K, V>		after;
+
+		public Entry(K key, V value, int size)
+		{
+			this.key = key;
+			this.value = value;
+			this.size = size;
+		}
+
+		/**
+		 * @return {@code true} if entry is still in access order, so it's in cache and not pinned. Must be called holding segment lock.
+		 */
+		protected boolean isLinked()
+		{
+			return before != null;
+		}
+	}
+}
@@ -0,0 +1,591 @@
+package com.code44.imageloader.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Memory cache with W-TinyLFU policy. New entries go to a small LRU window. When window is full, its eldest entry becomes a candidate for the main cache
+ * and is admitted only if it was requested more often than the entry that would be evicted for it. Frequencies are estimated with {@link FrequencySketch}.
+ * Main cache is a segmented LRU: entries that are hit again move from probation to protected part.
+ * <p>
+ * This keeps entries that are requested all the time (avatars, icons) while scrolling through a long list of images that are shown only once. Plain
+ * {@link StripedLruCache} would evict them.
+ * </p>
+ * <p>
+ * {@link #get(Object)} never blocks. Frequency is always recorded without locking, so a few increments can be lost (see {@link FrequencySketch}), and
+ * recency is updated only if the lock is free. Writes share a single lock. Use {@link #peek(Object)} to check again for a key that was already requested,
+ * otherwise the request is counted twice. Pinned entries are taken out of their part of cache until the last pin is released.
+ * </p>
+ *
+ * @author Mantas Varnagiris
+ */
+public class TinyLfuCache<K, V> extends MemoryCache<K, V>
+{
+	/** Part of cache used for window. */
+	protected static final float				WINDOW_PERCENT		= 0.1f;
+
+	/** Part of main cache used for entries that were hit more than once. */
+	protected static final float				PROTECTED_PERCENT	= 0.8f;
+
+	protected final ReentrantLock				lock;
+	protected final FrequencySketch				sketch;
+	protected final Map<K, Node<K, V>>			entries;
+	protected final LinkedHashMap<K, Node<K, V>>	window;
+	protected final LinkedHashMap<K, Node<K, V>>	probation;
+	protected final LinkedHashMap<K, Node<K, V>>	protectedQueue;
+	protected int								windowSize;
+	protected int								probationSize;
+	protected int								protectedSize;
+	protected volatile int						size;
+	protected volatile int						pinnedSize;
+
+	// Constructors
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * @param maxSize
+	 *            Maximum sum of {@link #sizeOf(Object, Object)} of all entries.
+	 * @param expectedEntries
+	 *            Approximate number of entries that fit into cache. Used to size frequency sketch.
+	 */
+	public TinyLfuCache(int maxSize, int expectedEntries)
+	{
+		super(maxSize);
+
+		this.lock = new ReentrantLock();
+		this.sketch = new FrequencySketch(Math.max(expectedEntries, 1));
+		this.entries = new ConcurrentHashMap<K, Node<K, V>>();
+		this.window = new LinkedHashMap<K, Node<K, V>>(16, 0.75f, true);
+		this.probation = new LinkedHashMap<K, Node<K, V>>(16, 0.75f, true);
+		this.protectedQueue = new LinkedHashMap<K, Node<K, V>>(16, 0.75f, true);
+		this.windowSize = 0;
+		this.probationSize = 0;
+		this.protectedSize = 0;
+		this.size = 0;
+		this.pinnedSize = 0;
+	}
+
+	// MemoryCache
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	@Override
+	public V get(K key)
+	{
+		if (key == null)
+			throw new NullPointerException("key == null");
+
+		// Lost updates are fine here, locking on every hit is not
+		sketch.increment(key.hashCode());
+
+		final Node<K, V> node = entries.get(key);
+		if (node == null)
+		{
+			missCount.incrementAndGet();
+			return null;
+		}
+
+		// Only reorder if nobody is writing
+		if (lock.tryLock())
+		{
+			try
+			{
+				onAccess(node);
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		hitCount.incrementAndGet();
+		return node.value;
+	}
+
+	@Override
+	public V peek(K key)
+	{
+		if (key == null)
+			throw new NullPointerException("key == null");
+
+		final Node<K, V> node = entries.get(key);
+		return node != null ? node.value : null;
+	}
+
+	@Override
+	public boolean containsKey(K key)
+	{
+		if (key == null)
+			throw new NullPointerException("key == null");
+
+		return entries.containsKey(key);
+	}
+
+	@Override
+	public V put(K key, V value)
+	{
+		return put(key, value, false, false);
+	}
+
+	@Override
+	public V putIfAbsent(K key, V value)
+	{
+		return put(key, value, true, false);
+	}
+
+	@Override
+	public V putIfAbsent(K key, V value, boolean isPinned)
+	{
+		return put(key, value, true, isPinned);
+	}
+
+	@Override
+	public V remove(K key)
+	{
+		if (key == null)
+			throw new NullPointerException("key == null");
+
+		final Node<K, V> node;
+		lock.lock();
+		try
+		{
+			node = entries.get(key);
+			if (node != null)
+				removeNode(node);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		if (node == null)
+			return null;
+
+		entryRemoved(false, key, node.value, null, node.isShared);
+		return node.value;
+	}
+
+	@Override
+	public boolean pin(K key, V value)
+	{
+		if (key == null || value == null)
+			throw new NullPointerException("key == null || value == null");
+
+		lock.lock();
+		try
+		{
+			final Node<K, V> node = entries.get(key);
+			if (node == null || node.value != value)
+				return false;
+
+			if (node.pinCount++ == 0)
+			{
+				unlinkFromRegion(node);
+				pinnedSize += node.size;
+			}
+			return true;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean unpin(K key, V value)
+	{
+		if (key == null || value == null)
+			throw new NullPointerException("key == null || value == null");
+
+		List<Node<K, V>> evicted = null;
+		lock.lock();
+		try
+		{
+			final Node<K, V> node = entries.get(key);
+			if (node == null || node.value != value || node.pinCount == 0)
+				return false;
+
+			// Goes back to the region it was in as the most recently used
+			if (--node.pinCount == 0)
+			{
+				pinnedSize -= node.size;
+				linkToRegion(node);
+				evicted = evict(evicted);
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		notifyEvicted(evicted);
+		return true;
+	}
+
+	@Override
+	public boolean markShared(K key, V value)
+	{
+		if (key == null || value == null)
+			throw new NullPointerException("key == null || value == null");
+
+		final Node<K, V> node = entries.get(key);
+		if (node == null || node.value != value)
+			return false;
+
+		// Node is marked before checking if it's removed and removal is marked before checking if node is shared, so one of them always sees the other
+		node.isShared = true;
+		return !node.isRemoved;
+	}
+
+	/**
+	 * When trimming to maximum size, W-TinyLFU policy is used. Otherwise entries on probation are evicted first, then window and then protected entries.
+	 * Pinned entries are never evicted.
+	 */
+	@Override
+	public void trimToSize(int maxSize)
+	{
+		List<Node<K, V>> evicted = null;
+		lock.lock();
+		try
+		{
+			if (maxSize == this.maxSize)
+				evicted = evict(evicted);
+
+			while (size > maxSize)
+			{
+				Node<K, V> victim = eldest(probation, null);
+				if (victim == null)
+					victim = eldest(window, null);
+				if (victim == null)
+					victim = eldest(protectedQueue, null);
+				if (victim == null)
+					break;
+
+				evicted = removeEvicted(evicted, victim);
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		notifyEvicted(evicted);
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public int pinnedSize()
+	{
+		return pinnedSize;
+	}
+
+	// Protected methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	protected V put(K key, V value, boolean onlyIfAbsent, boolean isPinned)
+	{
+		if (key == null || value == null)
+			throw new NullPointerException("key == null || value == null");
+
+		final Node<K, V> node = new Node<K, V>(key, value, sizeOf(key, value));
+		List<Node<K, V>> evicted = null;
+		final Node<K, V> previous;
+		lock.lock();
+		try
+		{
+			previous = entries.get(key);
+			if (previous != null && onlyIfAbsent)
+				return previous.value;
+
+			if (previous != null)
+				removeNode(previous);
+
+			// Pinned node goes to window when it's unpinned
+			node.region = Region.WINDOW;
+			entries.put(key, node);
+			if (isPinned)
+			{
+				node.pinCount = 1;
+				pinnedSize += node.size;
+			}
+			else
+			{
+				linkToRegion(node);
+			}
+			putCount.incrementAndGet();
+
+			evicted = evict(evicted);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		if (previous != null)
+			entryRemoved(false, key, previous.value, value, previous.isShared);
+
+		notifyEvicted(evicted);
+		return previous != null ? previous.value : null;
+	}
+
+	/**
+	 * Moves entries from window to main cache and evicts entries that lose admission. Window always keeps the newest entry, even if it alone is bigger than
+	 * window. Otherwise with big bitmaps and a small cache every new entry would go straight to admission before it could be hit again. Must be called
+	 * holding the lock.
+	 *
+	 * @param evicted
+	 *            Evicted nodes are added here. Can be {@code null}.
+	 * @return List of evicted nodes. {@code null} if {@code evicted} was {@code null} and nothing was evicted.
+	 */
+	protected List<Node<K, V>> evict(List<Node<K, V>> evicted)
+	{
+		final int windowMax = (int) (maxSize * WINDOW_PERCENT);
+		final int mainMax = maxSize - windowMax;
+
+		while (windowSize > windowMax && window.size() > 1)
+		{
+			Node<K, V> candidate = eldest(window, null);
+			if (candidate == null)
+				break;
+
+			// Candidate leaves window and goes to probation
+			window.remove(candidate.key);
+			windowSize -= candidate.size;
+			candidate.region = Region.PROBATION;
+			probation.put(candidate.key, candidate);
+			probationSize += candidate.size;
+
+			while (probationSize + protectedSize > mainMax)
+			{
+				Node<K, V> victim = eldest(probation, candidate);
+				if (victim == null)
+					victim = eldest(protectedQueue, null);
+
+				if (candidate != null && (victim == null || sketch.frequency(candidate.key.hashCode()) <= sketch.frequency(victim.key.hashCode())))
+				{
+					evicted = removeEvicted(evicted, candidate);
+					candidate = null;
+				}
+				else if (victim != null)
+				{
+					evicted = removeEvicted(evicted, victim);
+				}
+				else
+				{
+					break;
+				}
+			}
+		}
+
+		// Window entry that is bigger than window takes space from main cache
+		while (size > maxSize)
+		{
+			Node<K, V> victim = eldest(probation, null);
+			if (victim == null)
+				victim = eldest(protectedQueue, null);
+			if (victim == null)
+				victim = eldest(window, null);
+			if (victim == null)
+				break;
+
+			evicted = removeEvicted(evicted, victim);
+		}
+		return evicted;
+	}
+
+	/**
+	 * Must be called holding the lock.
+	 */
+	protected void onAccess(Node<K, V> node)
+	{
+		// Might be removed after it was read. Pinned node is not in any region.
+		if (entries.get(node.key) != node || node.pinCount > 0)
+			return;
+
+		switch (node.region)
+		{
+			case WINDOW:
+				window.get(node.key);
+				break;
+
+			case PROBATION:
+			{
+				// Hit again, so it's promoted
+				probation.remove(node.key);
+				probationSize -= node.size;
+				node.region = Region.PROTECTED;
+				protectedQueue.put(node.key, node);
+				protectedSize += node.size;
+
+				final int protectedMax = (int) ((maxSize - (int) (maxSize * WINDOW_PERCENT)) * PROTECTED_PERCENT);
+				while (protectedSize > protectedMax)
+				{
+					final Node<K, V> demoted = eldest(protectedQueue, node);
+					if (demoted == null)
+						break;
+
+					protectedQueue.remove(demoted.key);
+					protectedSize -= demoted.size;
+					demoted.region = Region.PROBATION;
+					probation.put(demoted.key, demoted);
+					probationSize += demoted.size;
+				}
+				break;
+			}
+
+			case PROTECTED:
+				protectedQueue.get(node.key);
+				break;
+		}
+	}
+
+	/**
+	 * Must be called holding the lock.
+	 */
+	protected void removeNode(Node<K, V> node)
+	{
+		entries.remove(node.key);
+		if (node.pinCount > 0)
+		{
+			node.isShared = true;
+			pinnedSize -= node.size;
+		}
+		else
+		{
+			unlinkFromRegion(node);
+		}
+		node.isRemoved = true;
+	}
+
+	/**
+	 * Removes node and adds it to evicted nodes. Must be called holding the lock.
+	 *
+	 * @return List of evicted nodes. New list if {@code evicted} was {@code null}.
+	 */
+	protected List<Node<K, V>> removeEvicted(List<Node<K, V>> evicted, Node<K, V> node)
+	{
+		removeNode(node);
+		if (evicted == null)
+			evicted = new ArrayList<Node<K, V>>(2);
+		evicted.add(node);
+		return evicted;
+	}
+
+	/**
+	 * Adds node to its region as the most recently used. Must be called holding the lock.
+	 */
+	protected void linkToRegion(Node<K, V> node)
+	{
+		switch (node.region)
+		{
+			case WINDOW:
+				window.put(node.key, node);
+				windowSize += node.size;
+				break;
+
+			case PROBATION:
+				probation.put(node.key, node);
+				probationSize += node.size;
+				break;
+
+			case PROTECTED:
+				protectedQueue.put(node.key, node);
+				protectedSize += node.size;
+				break;
+		}
+		size += node.size;
+	}
+
+	/**
+	 * Must be called holding the lock.
+	 */
+	protected void unlinkFromRegion(Node<K, V> node)
+	{
+		switch (node.region)
+		{
+			case WINDOW:
+				window.remove(node.key);
+				windowSize -= node.size;
+				break;
+
+			case PROBATION:
+				probation.remove(node.key);
+				probationSize -= node.size;
+				break;
+
+			case PROTECTED:
+				protectedQueue.remove(node.key);
+				protectedSize -= node.size;
+				break;
+		}
+		size -= node.size;
+	}
+
+	protected Node<K, V> eldest(LinkedHashMap<K, Node<K, V>> queue, Node<K, V> exclude)
+	{
+		final Iterator<Node<K, V>> iterator = queue.values().iterator();
+		while (iterator.hasNext())
+		{
+			final Node<K, V> node = iterator.next();
+			if (node != exclude)
+				return node;
+		}
+		return null;
+	}
+
+	/**
+	 * @param evicted
+	 *            Evicted nodes. Can be {@code null}.
+	 */
+	protected void notifyEvicted(List<Node<K, V>> evicted)
+	{
+		if (evicted == null)
+			return;
+
+		evictionCount.addAndGet(evicted.size());
+		for (int i = 0, count = evicted.size(); i < count; i++)
+		{
+			final Node<K, V> node = evicted.get(i);
+			entryRemoved(true, node.key, node.value, null, node.isShared);
+		}
+	}
+
+	// Node
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	protected enum Region
+	{
+		WINDOW, PROBATION, PROTECTED
+	}
+
+	protected static class Node<K, V>
+	{
+		protected final K			key;
+		protected final V			value;
+		protected final int			size;
+		protected Region			region;
+
+		/** Number of pins. Pinned node keeps its region, but it's not in region queue. Guarded by the lock. */
+		protected int				pinCount;
+
+		/** See {@link MemoryCache#markShared(Object, Object)}. */
+		protected volatile boolean	isShared;
+		protected volatile boolean	isRemoved;
+
+		public Node(K key, V value, int size)
+		{
+			this.key = key;
+			this.value = value;
+			this.size = size;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.code44.imageloader.executor;
+
+import java.util.LinkedList;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.view.Choreographer;
+
+/**
+ * Runs posted work on main thread in batches, once per frame. Finished images are set to views together, so layout and invalidation passes are shared by
+ * all of them instead of running for every image separately. If work takes longer than frame budget, the rest is left for the next frame.
+ * <p>
+ * Uses {@link Choreographer} on Jelly Bean and newer. On older versions work is batched in a single {@link Handler} message.
+ * </p>
+ * 
+ * @author Mantas Varnagiris
+ */
+public class FrameDispatcher
+{
+	private static final boolean			SUPPORTS_JELLYBEAN	= android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.JELLY_BEAN;
+
+	protected final Handler					mainHandler;
+	protected final long					frameBudgetNanos;
+	protected final LinkedList<Runnable>	queue;
+	protected final Runnable				dispatchRunnable;
+	protected final Runnable				postFrameCallbackRunnable;
+	protected Object						frameCallback;
+	protected boolean						isScheduled;
+
+	public FrameDispatcher(Handler mainHandler, int frameBudgetMillis)
+	{
+		this.mainHandler = mainHandler;
+		this.frameBudgetNanos = frameBudgetMillis * 1000000L;
+		this.queue = new LinkedList<Runnable>();
+		this.isScheduled = false;
+		this.frameCallback = null;
+
+		this.dispatchRunnable = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				dispatch();
+			}
+		};
+
+		this.postFrameCallbackRunnable = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				postFrameCallback();
+			}
+		};
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Queues work to be done on main thread in the next frame. Can be called from any thread.
+	 * 
+	 * @param runnable
+	 *            Work to do.
+	 */
+	public void post(Runnable runnable)
+	{
+		synchronized (queue)
+		{
+			queue.add(runnable);
+			if (isScheduled)
+				return;
+			isScheduled = true;
+		}
+
+		scheduleNextFrame();
+	}
+
+	// Protected methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	protected void scheduleNextFrame()
+	{
+		// Choreographer instance belongs to the thread it was retrieved on, so it's retrieved on main thread
+		if (SUPPORTS_JELLYBEAN)
+			mainHandler.post(postFrameCallbackRunnable);
+		else
+			mainHandler.post(dispatchRunnable);
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	protected void postFrameCallback()
+	{
+		if (frameCallback == null)
+		{
+			frameCallback = new Choreographer.FrameCallback()
+			{
+				@Override
+				public void doFrame(long frameTimeNanos)
+				{
+					dispatch();
+				}
+			};
+		}
+
+		Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) frameCallback);
+	}
+
+	/**
+	 * Runs queued work until frame budget is used. At least one item is always run. If work throws, the rest is still dispatched in the next frame.
+	 */
+	protected void dispatch()
+	{
+		final long deadline = System.nanoTime() + frameBudgetNanos;
+		boolean isQueueEmpty = false;
+		try
+		{
+			do
+			{
+				final Runnable runnable;
+				synchronized (queue)
+				{
+					runnable = queue.poll();
+					if (runnable == null)
+					{
+						isScheduled = false;
+						isQueueEmpty = true;
+						return;
+					}
+				}
+				runnable.run();
+			}
+			while (System.nanoTime() < deadline);
+		}
+		finally
+		{
+			if (!isQueueEmpty)
+				onDispatchStopped();
+		}
+	}
+
+	/**
+	 * Schedules next frame if there is work left. Otherwise next {@link #post(Runnable)} will schedule it.
+	 */
+	protected void onDispatchStopped()
+	{
+		synchronized (queue)
+		{
+			if (queue.isEmpty())
+			{
+				isScheduled = false;
+				return;
+			}
+		}
+
+		scheduleNextFrame();
+	}
+}
@@ -0,0 +1,407 @@
+package com.code44.imageloader.executor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.code44.imageloader.BuildConfig;
+import com.code44.imageloader.ImageLoader;
+import com.code44.imageloader.ImageSettings.Priority;
+import com.code44.imageloader.LoaderSettings;
+
+/**
+ * Singleton. Owns separate thread pools for every stage of image loading, so slow downloads don't block file cache hits and image loading doesn't compete
+ * with other {@code AsyncTask}s in the application. Work should hop between stages using {@link #execute(Stage, Runnable)} instead of holding one thread for
+ * the whole load.
+ * <p>
+ * Queued work is ordered by {@link Prioritized#getPriority()} and then newest first, so in a fast scrolling list images for rows that are currently visible
+ * are loaded before the ones that scrolled away. Priority is read once when work is queued. Use {@link #reprioritize(Stage, Runnable)} when it changes.
+ * </p>
+ *
+ * @author Mantas Varnagiris
+ */
+public class LoaderExecutor
+{
+	protected static final String	TAG	= ImageLoader.TAG + " - Executor";
+
+	public enum Stage
+	{
+		/** Memory cache lookups and file cache index checks. Never paused, so it must not decode. */
+		DISK,
+
+		/** Fetching bitmap data using {@link com.code44.imageloader.getter.BitmapGetter}. */
+		NETWORK,
+
+		/** Decoding and processing bitmaps. This includes reading processed file cache and scaling down bigger sizes from memory cache. */
+		DECODE
+	}
+
+	protected final ThreadPoolExecutor	diskExecutor;
+	protected final ThreadPoolExecutor	networkExecutor;
+	protected final ThreadPoolExecutor	decodeExecutor;
+	protected final Handler				mainHandler;
+	protected final FrameDispatcher		frameDispatcher;
+	protected final List<PausedWork>	pausedWork;
+	protected final AtomicInteger[]		droppedCounts;
+	protected boolean					isPaused;
+
+	// Singleton
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private static LoaderExecutor		instance;
+
+	/**
+	 * Creates thread pools using sizes from given {@link LoaderSettings}. Call this in {@code Application.onCreate()} if you want custom pool sizes.
+	 *
+	 * @param settings
+	 *            Settings with pool sizes.
+	 */
+	public static synchronized void initLoaderExecutor(LoaderSettings settings)
+	{
+		instance = new LoaderExecutor(settings);
+	}
+
+	/**
+	 * Thread pools are shared between all {@link ImageLoader} instances. If they are not initialized yet, pool sizes from given {@link LoaderSettings} are
+	 * used.
+	 *
+	 * @param settings
+	 *            Settings used if executor is not created yet. Can be {@code null}.
+	 * @return Shared instance of {@link LoaderExecutor}.
+	 */
+	public static synchronized LoaderExecutor getDefault(LoaderSettings settings)
+	{
+		if (instance == null)
+		{
+			instance = new LoaderExecutor(settings);
+			if (BuildConfig.DEBUG)
+				Log.w(TAG,
+						"Using default LoaderExecutor. If you want to customize it, call initLoaderExecutor(LoaderSettings settings) in Application.onCreate().");
+		}
+		return instance;
+	}
+
+	private LoaderExecutor(LoaderSettings settings)
+	{
+		if (settings == null)
+			settings = new LoaderSettings();
+
+		diskExecutor = createExecutor("disk", settings.getDiskPoolSize());
+		networkExecutor = createExecutor("network", settings.getNetworkPoolSize());
+		decodeExecutor = createExecutor("decode", settings.getDecodePoolSize());
+		mainHandler = new Handler(Looper.getMainLooper());
+		frameDispatcher = new FrameDispatcher(mainHandler, settings.getFrameBudgetMillis());
+		pausedWork = new ArrayList<PausedWork>();
+		droppedCounts = new AtomicInteger[Stage.values().length];
+		for (int i = 0; i < droppedCounts.length; i++)
+			droppedCounts[i] = new AtomicInteger();
+		isPaused = false;
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Queues work on thread pool for given stage.
+	 *
+	 * @param stage
+	 *            Stage that work belongs to.
+	 * @param runnable
+	 *            Work to do.
+	 */
+	public void execute(Stage stage, Runnable runnable)
+	{
+		if (stage != Stage.DISK)
+		{
+			synchronized (pausedWork)
+			{
+				if (isPaused)
+				{
+					pausedWork.add(new PausedWork(stage, runnable));
+					return;
+				}
+			}
+		}
+
+		getThreadPool(stage).execute(new QueuedWork(runnable));
+	}
+
+	/**
+	 * Moves queued work to the place that matches its current {@link Prioritized#getPriority()} and {@link Prioritized#getSequence()}. Does nothing if work
+	 * is not in the queue of given stage (eg. it's already running or paused).
+	 * 
+	 * @param stage
+	 *            Stage that work was queued for.
+	 * @param runnable
+	 *            Work that was queued with {@link #execute(Stage, Runnable)}.
+	 */
+	public void reprioritize(Stage stage, Runnable runnable)
+	{
+		// Queue order cannot change while work is in it. Only the one who removed the old entry puts in a new one, so work is never queued twice.
+		final ThreadPoolExecutor threadPool = getThreadPool(stage);
+		if (threadPool.remove(new QueuedWork(runnable)))
+			threadPool.execute(new QueuedWork(runnable));
+	}
+
+	/**
+	 * Stops dispatching {@link Stage#NETWORK} and {@link Stage#DECODE} work until {@link #resume()} is called. Work that is already running will finish.
+	 * {@link Stage#DISK} work is not paused, because it only looks up memory cache and file cache index.
+	 */
+	public void pause()
+	{
+		synchronized (pausedWork)
+		{
+			isPaused = true;
+		}
+	}
+
+	/**
+	 * Dispatches all work that was held back since {@link #pause()}.
+	 */
+	public void resume()
+	{
+		final PausedWork[] work;
+		synchronized (pausedWork)
+		{
+			isPaused = false;
+			work = pausedWork.toArray(new PausedWork[pausedWork.size()]);
+			pausedWork.clear();
+		}
+
+		for (PausedWork pw : work)
+			getThreadPool(pw.stage).execute(new QueuedWork(pw.runnable));
+	}
+
+	public boolean isPaused()
+	{
+		synchronized (pausedWork)
+		{
+			return isPaused;
+		}
+	}
+
+	/**
+	 * Posts work to main thread.
+	 *
+	 * @param runnable
+	 *            Work to do.
+	 */
+	public void postToMainThread(Runnable runnable)
+	{
+		mainHandler.post(runnable);
+	}
+
+	/**
+	 * Posts work to main thread to be done together with other work in the next frame. Use this for work that changes views.
+	 * 
+	 * @param runnable
+	 *            Work to do.
+	 */
+	public void postToNextFrame(Runnable runnable)
+	{
+		frameDispatcher.post(runnable);
+	}
+
+	/**
+	 * Records that work was dropped before it started given stage, because nobody needed it anymore.
+	 * 
+	 * @param stage
+	 *            Stage that was not started.
+	 */
+	public void onRequestDropped(Stage stage)
+	{
+		droppedCounts[stage.ordinal()].incrementAndGet();
+	}
+
+	/**
+	 * @param stage
+	 *            Stage.
+	 * @return Number of requests that were dropped before given stage.
+	 */
+	public int getDroppedCount(Stage stage)
+	{
+		return droppedCounts[stage.ordinal()].get();
+	}
+
+	/**
+	 * @param stage
+	 *            Stage.
+	 * @return {@link Executor} for given stage.
+	 */
+	public Executor getExecutor(Stage stage)
+	{
+		return getThreadPool(stage);
+	}
+
+	// Protected methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	protected ThreadPoolExecutor getThreadPool(Stage stage)
+	{
+		switch (stage)
+		{
+			case NETWORK:
+				return networkExecutor;
+
+			case DECODE:
+				return decodeExecutor;
+
+			default:
+				return diskExecutor;
+		}
+	}
+
+	protected ThreadPoolExecutor createExecutor(final String name, int poolSize)
+	{
+		final ThreadFactory threadFactory = new ThreadFactory()
+		{
+			private final AtomicInteger	count	= new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(final Runnable runnable)
+			{
+				return new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+						runnable.run();
+					}
+				}, ImageLoader.TAG + " " + name + " #" + count.getAndIncrement());
+			}
+		};
+
+		return new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(11, new PriorityComparator()),
+				threadFactory);
+	}
+
+	// PausedWork
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	protected static class PausedWork
+	{
+		protected final Stage		stage;
+		protected final Runnable	runnable;
+
+		public PausedWork(Stage stage, Runnable runnable)
+		{
+			this.stage = stage;
+			this.runnable = runnable;
+		}
+	}
+
+	// QueuedWork
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Entry in thread pool queue. Priority and sequence are copied when work is queued, so ordering inside the queue never changes. Entries are equal when
+	 * they wrap the same work, so queued entry can be found and removed.
+	 */
+	protected static class QueuedWork implements Runnable
+	{
+		protected final Runnable	runnable;
+		protected final int			priority;
+		protected final long		sequence;
+
+		public QueuedWork(Runnable runnable)
+		{
+			this.runnable = runnable;
+			if (runnable instanceof Prioritized)
+			{
+				this.priority = ((Prioritized) runnable).getPriority();
+				this.sequence = ((Prioritized) runnable).getSequence();
+			}
+			else
+			{
+				this.priority = Priority.NORMAL.ordinal();
+				this.sequence = 0;
+			}
+		}
+
+		@Override
+		public void run()
+		{
+			runnable.run();
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			return o instanceof QueuedWork && ((QueuedWork) o).runnable == runnable;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return System.identityHashCode(runnable);
+		}
+	}
+
+	// Prioritized
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Work that implements this interface is taken from the queue by priority first and then newest first. Other work is treated as normal priority and is
+	 * taken after prioritized work of the same priority.
+	 */
+	public static interface Prioritized
+	{
+		/**
+		 * @return Priority. Higher values are executed first.
+		 */
+		public int getPriority();
+
+		/**
+		 * @return Sequence number. When priority is the same, higher values are executed first.
+		 */
+		public long getSequence();
+	}
+
+	/**
+	 * Orders work by priority and then by sequence that were copied to {@link QueuedWork}, both descending. Other work is treated as normal priority.
+	 */
+	protected static class PriorityComparator implements Comparator<Runnable>
+	{
+		@Override
+		public int compare(Runnable lhs, Runnable rhs)
+		{
+			final int lhsPriority = getPriority(lhs);
+			final int rhsPriority = getPriority(rhs);
+			if (lhsPriority != rhsPriority)
+				return lhsPriority > rhsPriority ? -1 : 1;
+
+			final long lhsSequence = getSequence(lhs);
+			final long rhsSequence = getSequence(rhs);
+			if (lhsSequence != rhsSequence)
+				return lhsSequence > rhsSequence ? -1 : 1;
+
+			return 0;
+		}
+
+		private int getPriority(Runnable runnable)
+		{
+			if (runnable instanceof QueuedWork)
+				return ((QueuedWork) runnable).priority;
+			return Priority.NORMAL.ordinal();
+		}
+
+		private long getSequence(Runnable runnable)
+		{
+			if (runnable instanceof QueuedWork)
+				return ((QueuedWork) runnable).sequence;
+			return 0;
+		}
+	}
+}
\ No newline at end of file
@@ -29,6 +29,8 @@ import com.code44.imageloader.info.URLBitmapInfo;
  */
 public class URLBitmapDataGetter extends FileBitmapDataGetter
 {
+	private static final int			BUFFER_SIZE	= 8 * 1024;
+
 	private final Context				context;
 
 	// Singleton
@@ -76,10 +78,22 @@ public class URLBitmapDataGetter extends FileBitmapDataGetter
 			final InputStream in = new BufferedInputStream(urlConnection.getInputStream());
 			out = new BufferedOutputStream(new FileOutputStream(tempFile));
 
-			int b;
-			while ((b = in.read()) != -1)
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			int length;
+			while ((length = in.read(buffer)) != -1)
 			{
-				out.write(b);
+				// Stop downloading as soon as nobody needs this image. Connection is closed in finally block
+				if (imageInfo.isCancelled())
+				{
+					if (isLoggingOn)
+						Log.i(TAG, "Download cancelled [" + imageInfo.toString() + "]");
+					in.close();
+					out.close();
+					out = null;
+					tempFile.delete();
+					return null;
+				}
+				out.write(buffer, 0, length);
 			}
 			in.close();
 
@@ -94,6 +108,7 @@ public class URLBitmapDataGetter extends FileBitmapDataGetter
 		{
 			if (isLoggingOn)
 				Log.w(ImageLoader.TAG, "Failed downloading bitmap to file [" + imageInfo.toString() + "]");
+			tempFile.delete();
 		}
 		finally
 		{
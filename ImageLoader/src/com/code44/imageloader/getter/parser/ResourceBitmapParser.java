@@ -2,6 +2,8 @@ package com.code44.imageloader.getter.parser;
 
 import java.io.File;
 
+import android.content.Context;
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapFactory.Options;
@@ -18,11 +20,16 @@ import com.code44.imageloader.info.ResourceBitmapInfo;
  */
 public class ResourceBitmapParser extends ScaledBitmapParser
 {
+	private volatile Context			context;
+
 	// Singleton
 	// ------------------------------------------------------------------------------------------------------------------------------------
 
 	private static ResourceBitmapParser	instance;
 
+	/**
+	 * Parser created here decodes only images that have a view. Use {@link #getDefault(Context)} to decode images without view.
+	 */
 	public static ResourceBitmapParser getDefault()
 	{
 		if (instance == null)
@@ -30,8 +37,26 @@ public class ResourceBitmapParser extends ScaledBitmapParser
 		return instance;
 	}
 
+	/**
+	 * @param context
+	 *            Context whose resources are used for images loaded without view.
+	 */
+	public static ResourceBitmapParser getDefault(Context context)
+	{
+		final ResourceBitmapParser parser = getDefault();
+		if (parser.context == null && context != null)
+			parser.context = context.getApplicationContext();
+		return parser;
+	}
+
 	protected ResourceBitmapParser()
 	{
+		this.context = null;
+	}
+
+	protected ResourceBitmapParser(Context context)
+	{
+		this.context = context.getApplicationContext();
 	}
 
 	// ScaledBitmapParser
@@ -41,10 +66,16 @@ public class ResourceBitmapParser extends ScaledBitmapParser
 	protected Bitmap decodeBitmap(ImageInfo imageInfo, BitmapData bitmapData, Options options)
 	{
 		final int resId = ((ResourceBitmapInfo) imageInfo.getBitmapInfo()).getResId();
+		if (resId <= 0)
+			return null;
+
+		// Use view's resources if possible, because they might have different configuration. Images loaded without view use application resources
 		final View view = imageInfo.getView();
-		if (resId > 0 && view != null)
-			return BitmapFactory.decodeResource(view.getContext().getResources(), resId, options);
-		return null;
+		final Context context = this.context;
+		final Resources resources = view != null ? view.getContext().getResources() : context != null ? context.getResources() : null;
+		if (resources == null)
+			return null;
+		return BitmapFactory.decodeResource(resources, resId, options);
 	}
 
 	@Override
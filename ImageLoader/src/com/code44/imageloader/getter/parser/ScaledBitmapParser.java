@@ -1,12 +1,15 @@
 package com.code44.imageloader.getter.parser;
 
+import android.annotation.TargetApi;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.util.Log;
 
 import com.code44.imageloader.ImageInfo;
+import com.code44.imageloader.ImageInfo.OnCancelListener;
 import com.code44.imageloader.ImageSettings;
 import com.code44.imageloader.ImageSettings.SizeType;
+import com.code44.imageloader.cache.BitmapPool;
 import com.code44.imageloader.getter.data.BitmapData;
 
 /**
@@ -98,7 +101,7 @@ public abstract class ScaledBitmapParser extends BitmapParser
 			final int scaledWidth = (int) (width * scale);
 			final int scaledHeight = (int) (height * scale);
 			newBitmap = Bitmap.createScaledBitmap(bitmap, scaledWidth, scaledHeight, true);
-			bitmap.recycle();
+			recycle(bitmap);
 			bitmap = null;
 		}
 		else
@@ -109,6 +112,51 @@ public abstract class ScaledBitmapParser extends BitmapParser
 		return newBitmap;
 	}
 
+	/**
+	 * Returns bitmap that is no longer needed to {@link BitmapPool} or recycles it if it cannot be reused.
+	 * 
+	 * @param bitmap
+	 *            Bitmap.
+	 */
+	protected void recycle(Bitmap bitmap)
+	{
+		if (bitmap != null && !BitmapPool.getDefault().put(bitmap))
+			bitmap.recycle();
+	}
+
+	/**
+	 * Decodes bitmap reusing memory of a bitmap from {@link BitmapPool} when possible. If decoder cannot reuse it, bitmap is decoded again without reuse
+	 * and with options it had before.
+	 */
+	@TargetApi(11)
+	protected Bitmap decodeReusingBitmap(ImageInfo imageInfo, BitmapData bitmapData, BitmapFactory.Options options)
+	{
+		final boolean isMutable = android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.HONEYCOMB && options.inMutable;
+		final boolean isPurgeable = options.inPurgeable;
+		final boolean isInputShareable = options.inInputShareable;
+		if (!BitmapPool.getDefault().addInBitmapOptions(options))
+			return decodeBitmap(imageInfo, bitmapData, options);
+
+		try
+		{
+			final Bitmap bitmap = decodeBitmap(imageInfo, bitmapData, options);
+			if (bitmap != null)
+				return bitmap;
+		}
+		catch (IllegalArgumentException e)
+		{
+			if (imageInfo.isLoggingOn())
+				Log.i(TAG, "Cannot decode into reused bitmap. [" + imageInfo.toString() + "]");
+		}
+
+		recycle(options.inBitmap);
+		options.inBitmap = null;
+		options.inMutable = isMutable;
+		options.inPurgeable = isPurgeable;
+		options.inInputShareable = isInputShareable;
+		return imageInfo.isCancelled() ? null : decodeBitmap(imageInfo, bitmapData, options);
+	}
+
 	// Abstract methods
 	// ------------------------------------------------------------------------------------------------------------------------------------
 
@@ -136,6 +184,14 @@ public abstract class ScaledBitmapParser extends BitmapParser
 			options.inJustDecodeBounds = true;
 			options.inPurgeable = true;
 			options.inInputShareable = true;
+			imageInfo.setOnCancelListener(new OnCancelListener()
+			{
+				@Override
+				public void onCancel()
+				{
+					options.requestCancelDecode();
+				}
+			});
 			decodeBitmap(imageInfo, bitmapData, options);
 
 			// Calculate inSampleSize
@@ -143,13 +199,22 @@ public abstract class ScaledBitmapParser extends BitmapParser
 
 			// Decode bitmap with inSampleSize set
 			options.inJustDecodeBounds = false;
-			tempBitmap = decodeBitmap(imageInfo, bitmapData, options);
-			if (tempBitmap == null)
+			if (!imageInfo.isCancelled())
+				tempBitmap = decodeReusingBitmap(imageInfo, bitmapData, options);
+			imageInfo.setOnCancelListener(null);
+			if (tempBitmap == null || imageInfo.isCancelled())
 			{
 				if (imageInfo.isLoggingOn())
-					Log.w(TAG, "Failed to decode bitmap. [" + imageInfo.toString() + "]");
+				{
+					if (imageInfo.isCancelled())
+						Log.i(TAG, "Bitmap decode cancelled. [" + imageInfo.toString() + "]");
+					else
+						Log.w(TAG, "Failed to decode bitmap. [" + imageInfo.toString() + "]");
+				}
+				recycle(tempBitmap);
 				return null;
 			}
+			imageInfo.setSourceSize(options.outWidth, options.outHeight);
 
 			// Resize and crop bitmap if necessary
 			switch (sizeType)
@@ -187,7 +252,7 @@ public abstract class ScaledBitmapParser extends BitmapParser
 						bitmap = Bitmap.createBitmap(tempBitmap, Math.max((tempBitmap.getWidth() - reqWidth) / 2, 0),
 								Math.max((tempBitmap.getHeight() - reqHeight) / 2, 0), Math.min(reqWidth, tempBitmap.getWidth()),
 								Math.min(reqHeight, tempBitmap.getHeight()));
-						tempBitmap.recycle();
+						recycle(tempBitmap);
 						tempBitmap = null;
 					}
 					break;
@@ -224,6 +289,7 @@ public abstract class ScaledBitmapParser extends BitmapParser
 		}
 		catch (OutOfMemoryError e)
 		{
+			imageInfo.setOnCancelListener(null);
 			Log.e(TAG, "Failed to parse bitmap. ScaledBitmapParser. [" + imageInfo.toString() + "]", e);
 			if (tempBitmap != null)
 			{
@@ -238,6 +304,7 @@ public abstract class ScaledBitmapParser extends BitmapParser
 		}
 		catch (Exception e)
 		{
+			imageInfo.setOnCancelListener(null);
 			Log.e(TAG, "Failed to parse bitmap. ScaledBitmapParser. [" + imageInfo.toString() + "]", e);
 			if (tempBitmap != null)
 			{
@@ -1,13 +1,20 @@
 package com.code44.imageloader.info;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.widget.ImageView;
 
+import com.code44.imageloader.ImageInfo;
 import com.code44.imageloader.ImageLoader;
+import com.code44.imageloader.ImageSettings;
+import com.code44.imageloader.cache.CacheSettings;
 import com.code44.imageloader.getter.BitmapGetter;
 import com.code44.imageloader.getter.data.BitmapData;
 import com.code44.imageloader.getter.parser.BitmapParser;
+import com.code44.imageloader.utils.HashKey;
+import com.code44.imageloader.utils.StringUtils;
 
 /**
  * Holds information about how to load {@link BitmapData} and how to parse it to {@link Bitmap} using {@link BitmapParser}. Extend this class if you want custom
@@ -19,17 +26,112 @@ import com.code44.imageloader.getter.parser.BitmapParser;
  * <p>
  * <b>Note: </b>Override {@link #toString()} method for better logging.
  * </p>
+ * <p>
+ * <b>Tip: </b>Keep and reuse the same {@link BitmapInfo} for the same image (eg. in your list item model). Its key and cache name are remembered, so memory
+ * cache hits don't allocate anything. Cache names of recently used keys are also shared between instances, so a new info for a recent image only builds its
+ * key.
+ * </p>
  * 
  * @author Mantas Varnagiris
  */
 public abstract class BitmapInfo
 {
+	/**
+	 * Cache names of recently used keys, indexed by low bits of the key. Entries are immutable and slots are simply overwritten, so lookups don't lock or
+	 * allocate.
+	 */
+	private static final AtomicReferenceArray<CacheName>	RECENT_CACHE_NAMES	= new AtomicReferenceArray<CacheName>(256);
+
+	/** Memoized {@link #getBitmapKey()}. */
+	private volatile HashKey								bitmapKey			= null;
+
+	/** Memoized {@link #getCacheName(ImageSettings)} for the last settings it was called with. */
+	private volatile CacheName								cacheName			= null;
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Name used as a key in memory and file cache. {@link #getBitmapKey()} and {@link ImageSettings#getSettingsKey()} are combined into 128-bit key that
+	 * finds the name built earlier, so repeated calls don't allocate or lock.
+	 * 
+	 * @param imageSettings
+	 *            Settings.
+	 * @return Cache name.
+	 */
+	public String getCacheName(ImageSettings imageSettings)
+	{
+		final HashKey bitmapKey = getBitmapKey();
+		final HashKey settingsKey = imageSettings.getSettingsKey();
+		final long high = HashKey.combine(bitmapKey.high, settingsKey.high);
+		final long low = HashKey.combine(bitmapKey.low, settingsKey.low);
+
+		CacheName name = cacheName;
+		if (name == null || name.high != high || name.low != low)
+		{
+			final int index = (int) low & (RECENT_CACHE_NAMES.length() - 1);
+			name = RECENT_CACHE_NAMES.get(index);
+			if (name == null || name.high != high || name.low != low)
+			{
+				name = new CacheName(high, low, ImageInfo.getCacheName(imageSettings.getSettingsName(), getBitmapName()));
+				RECENT_CACHE_NAMES.lazySet(index, name);
+			}
+			cacheName = name;
+		}
+
+		return name.cacheName;
+	}
+
+	/**
+	 * 128-bit key of the image. It's built once per instance and never changes. Default implementation hashes {@link #getBitmapName()}, override
+	 * {@link #createBitmapKey()} if key can be built without building the name.
+	 * 
+	 * @return Immutable bitmap key.
+	 */
+	public HashKey getBitmapKey()
+	{
+		// Race is harmless, same key would be built
+		HashKey key = bitmapKey;
+		if (key == null)
+		{
+			key = createBitmapKey();
+			bitmapKey = key;
+		}
+		return key;
+	}
+
+	/**
+	 * Name that was used for the same image by older versions. If file cache has no file for {@link #getBitmapName()}, but has one for this name, file is
+	 * renamed and reused instead of loading image again. See {@link CacheSettings#setMigrateLegacyNames(boolean)}. It's called on every file cache miss
+	 * while migration is on, so remember the name if it's expensive to build.
+	 * 
+	 * @return Old bitmap name or {@code null} if name never changed.
+	 */
+	public String getLegacyBitmapName()
+	{
+		return null;
+	}
+
+	// Protected methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Builds key for {@link #getBitmapKey()}. Called once per instance, on first use.
+	 * 
+	 * @return Key that is different for different {@link #getBitmapName()}.
+	 */
+	protected HashKey createBitmapKey()
+	{
+		return StringUtils.hashKey(getBitmapName());
+	}
+
 	// Abstract methods
 	// ------------------------------------------------------------------------------------------------------------------------------------
 
 	/**
 	 * This should be unique name identifying image. This name will be used for file cache and memory cache, so the name should be formatted so that it would be
-	 * a correct file name in file cache. Eg. URLs should be MD5-ed.
+	 * a correct file name in file cache. Eg. URLs should be hashed with {@link StringUtils#hash(String)}. It's called for every load, so remember the name
+	 * if it's expensive to build.
 	 * 
 	 * @return Unique name identifying image.
 	 */
@@ -51,4 +153,21 @@ public abstract class BitmapInfo
 	 * @return Instance of {@link BitmapParser} that can handle {@link BitmapData} returned from {@link BitmapGetter}.
 	 */
 	public abstract BitmapParser getBitmapParser(Context context);
+
+	// CacheName
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	private static class CacheName
+	{
+		private final long		high;
+		private final long		low;
+		private final String	cacheName;
+
+		public CacheName(long high, long low, String cacheName)
+		{
+			this.high = high;
+			this.low = low;
+			this.cacheName = cacheName;
+		}
+	}
 }
\ No newline at end of file
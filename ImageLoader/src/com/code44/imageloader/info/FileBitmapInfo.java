@@ -7,6 +7,7 @@ import com.code44.imageloader.getter.BitmapGetter;
 import com.code44.imageloader.getter.FileBitmapDataGetter;
 import com.code44.imageloader.getter.parser.BitmapParser;
 import com.code44.imageloader.getter.parser.FileBitmapParser;
+import com.code44.imageloader.utils.HashKey;
 import com.code44.imageloader.utils.StringUtils;
 
 /**
@@ -17,10 +18,14 @@ import com.code44.imageloader.utils.StringUtils;
 public class FileBitmapInfo extends BitmapInfo
 {
 	protected final String	filePath;
+	private final HashKey	filePathKey;
+	private String			bitmapName;
+	private String			legacyBitmapName;
 
 	public FileBitmapInfo(String filePath)
 	{
 		this.filePath = filePath;
+		this.filePathKey = filePath != null ? StringUtils.hashKey(filePath) : null;
 	}
 
 	// Object
@@ -63,7 +68,29 @@ public class FileBitmapInfo extends BitmapInfo
 	@Override
 	public String getBitmapName()
 	{
-		return StringUtils.md5(filePath);
+		// Race is harmless, same name would be built
+		if (bitmapName == null)
+			bitmapName = getBitmapKey().toString();
+		return bitmapName;
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public String getLegacyBitmapName()
+	{
+		// Race is harmless, same name would be built
+		if (legacyBitmapName == null)
+			legacyBitmapName = StringUtils.md5(filePath);
+		return legacyBitmapName;
+	}
+
+	/**
+	 * Key is built from {@link #filePath} when info is created, so getting cache name doesn't build bitmap name.
+	 */
+	@Override
+	protected HashKey createBitmapKey()
+	{
+		return filePathKey != null ? filePathKey : StringUtils.hashKey(filePath);
 	}
 
 	@Override
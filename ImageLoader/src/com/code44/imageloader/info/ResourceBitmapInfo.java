@@ -11,6 +11,8 @@ import com.code44.imageloader.utils.StringUtils;
 public class ResourceBitmapInfo extends BitmapInfo
 {
 	protected final int	resId;
+	private String		bitmapName;
+	private String		legacyBitmapName;
 
 	public ResourceBitmapInfo(int resId)
 	{
@@ -57,7 +59,20 @@ public class ResourceBitmapInfo extends BitmapInfo
 	@Override
 	public String getBitmapName()
 	{
-		return "Resource_ " + StringUtils.md5(String.valueOf(resId));
+		// Race is harmless, same name would be built
+		if (bitmapName == null)
+			bitmapName = "Resource_" + resId;
+		return bitmapName;
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public String getLegacyBitmapName()
+	{
+		// Race is harmless, same name would be built
+		if (legacyBitmapName == null)
+			legacyBitmapName = "Resource_ " + StringUtils.md5(String.valueOf(resId));
+		return legacyBitmapName;
 	}
 
 	@Override
@@ -75,7 +90,7 @@ public class ResourceBitmapInfo extends BitmapInfo
 	@Override
 	public BitmapParser getBitmapParser(Context context)
 	{
-		return ResourceBitmapParser.getDefault();
+		return ResourceBitmapParser.getDefault(context);
 	}
 
 	// Public methods
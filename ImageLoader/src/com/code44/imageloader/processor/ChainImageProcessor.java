@@ -1,13 +1,14 @@
 package com.code44.imageloader.processor;
 
 import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
 
 /**
  * Allows multiple image processors to be chained.
  * 
  * @author Mantas Varnagiris
  */
-public class ChainImageProcessor implements ImageProcessor
+public class ChainImageProcessor implements ImageProcessor, CompressFormatProvider
 {
 	ImageProcessor[]	processors;
 
@@ -32,4 +33,22 @@ public class ChainImageProcessor implements ImageProcessor
 			builder.append("." + processors[i].getUniqueId());
 		return ChainImageProcessor.class.getName() + builder.toString();
 	}
+
+	/**
+	 * Asks processors from last to first, because the last one that cares has the final say about how output looks.
+	 */
+	@Override
+	public CompressFormat getCompressFormat(Bitmap bitmap)
+	{
+		for (int i = processors.length - 1; i >= 0; i--)
+		{
+			if (processors[i] instanceof CompressFormatProvider)
+			{
+				final CompressFormat compressFormat = ((CompressFormatProvider) processors[i]).getCompressFormat(bitmap);
+				if (compressFormat != null)
+					return compressFormat;
+			}
+		}
+		return null;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,20 @@
+package com.code44.imageloader.processor;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+
+/**
+ * Optional interface for {@link ImageProcessor} that knows better than {@link Bitmap#hasAlpha()} how its output should be stored in processed images file
+ * cache. Eg. processor that draws on {@code ARGB_8888} canvas without transparent parts can return {@link CompressFormat#JPEG}.
+ * 
+ * @author Mantas Varnagiris
+ */
+public interface CompressFormatProvider
+{
+	/**
+	 * @param bitmap
+	 *            Bitmap returned by {@link ImageProcessor#processImage(Bitmap)}.
+	 * @return Format to use or {@code null} to let cache decide.
+	 */
+	public CompressFormat getCompressFormat(Bitmap bitmap);
+}
@@ -0,0 +1,101 @@
+package com.code44.imageloader.utils;
+
+/**
+ * Immutable 128-bit hash. Built once with {@link StringUtils#hashKey(String)} and kept by objects that need it on every lookup, so keys can be compared
+ * and combined without building strings or taking locks.
+ *
+ * @author Mantas Varnagiris
+ */
+public final class HashKey
+{
+	private static final char[]	HEX_DIGITS	= { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+	private static final long	C1			= 0x87c37b91114253d5L;
+
+	public final long			high;
+	public final long			low;
+
+	public HashKey(long high, long low)
+	{
+		this.high = high;
+		this.low = low;
+	}
+
+	// Object
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (o == this)
+			return true;
+
+		if (o == null || o.getClass() != this.getClass())
+			return false;
+
+		final HashKey hashKey = (HashKey) o;
+
+		return high == hashKey.high && low == hashKey.low;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return (int) low;
+	}
+
+	/**
+	 * @return 32 lower case hex digits. Bytes are in little endian order, same as MurmurHash3 reference implementation outputs them.
+	 */
+	@Override
+	public String toString()
+	{
+		final char[] hex = new char[32];
+		toHex(high, hex, 0);
+		toHex(low, hex, 16);
+		return new String(hex);
+	}
+
+	// Public methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * Combines halves of two keys. For a fixed {@code second}, different {@code first} values always give different results and the other way round, so
+	 * combining halves separately keeps the result 128-bit. Doesn't allocate.
+	 *
+	 * @param first
+	 *            Half of the first key.
+	 * @param second
+	 *            Same half of the second key.
+	 * @return Same half of the combined key.
+	 */
+	public static long combine(long first, long second)
+	{
+		return fmix(first ^ (Long.rotateLeft(second, 31) * C1));
+	}
+
+	// Private methods
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	/**
+	 * MurmurHash3 finalization mix. Also used by {@link StringUtils#hashKey(String)}.
+	 */
+	static long fmix(long k)
+	{
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	private static void toHex(long value, char[] hex, int offset)
+	{
+		for (int i = 0; i < 8; i++)
+		{
+			final int b = (int) (value >>> (i << 3)) & 0xff;
+			hex[offset + (i << 1)] = HEX_DIGITS[b >>> 4];
+			hex[offset + (i << 1) + 1] = HEX_DIGITS[b & 0xf];
+		}
+	}
+}
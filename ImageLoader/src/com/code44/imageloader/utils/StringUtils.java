@@ -2,6 +2,13 @@ package com.code44.imageloader.utils;
 
 public class StringUtils
 {
+	private static final long	C1	= 0x87c37b91114253d5L;
+	private static final long	C2	= 0x4cf5ad432745937fL;
+
+	/**
+	 * Use {@link #hash(String)}. This is only kept to find files that were cached using old names.
+	 */
+	@Deprecated
 	public static String md5(String md5)
 	{
 		try
@@ -20,4 +27,105 @@ public class StringUtils
 		}
 		return null;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * 128-bit MurmurHash3 (x64 variant) of string's UTF-16LE bytes. It's not cryptographic, but it's many times faster than MD5 and collisions are just as
+	 * unlikely for cache keys. Characters are read directly, so the only allocations are the result and its char array.
+	 *
+	 * @param value
+	 *            String to hash.
+	 * @return 32 lower case hex digits that can be used as a file name.
+	 */
+	public static String hash(String value)
+	{
+		return hashKey(value).toString();
+	}
+
+	/**
+	 * Same hash as {@link #hash(String)}, but returned as numbers. Keep the result when it's needed on every lookup.
+	 *
+	 * @param value
+	 *            String to hash.
+	 * @return 128-bit hash. {@link HashKey#toString()} gives the same value as {@link #hash(String)}.
+	 */
+	public static HashKey hashKey(String value)
+	{
+		final int length = value.length();
+		long h1 = 0;
+		long h2 = 0;
+
+		// Body. Each block is 8 chars (16 bytes).
+		final int blockEnd = length & ~7;
+		for (int i = 0; i < blockEnd; i += 8)
+		{
+			long k1 = getLong(value, i);
+			long k2 = getLong(value, i + 4);
+
+			k1 *= C1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= C2;
+			h1 ^= k1;
+
+			h1 = Long.rotateLeft(h1, 27);
+			h1 += h2;
+			h1 = h1 * 5 + 0x52dce729;
+
+			k2 *= C2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= C1;
+			h2 ^= k2;
+
+			h2 = Long.rotateLeft(h2, 31);
+			h2 += h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		// Tail
+		long k1 = 0;
+		long k2 = 0;
+		for (int i = blockEnd; i < length; i++)
+		{
+			final long c = value.charAt(i);
+			final int index = i - blockEnd;
+			if (index < 4)
+				k1 |= c << (index << 4);
+			else
+				k2 |= c << ((index - 4) << 4);
+		}
+		if (length - blockEnd > 4)
+		{
+			k2 *= C2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= C1;
+			h2 ^= k2;
+		}
+		if (length > blockEnd)
+		{
+			k1 *= C1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= C2;
+			h1 ^= k1;
+		}
+
+		// Finalization
+		final long byteLength = length << 1;
+		h1 ^= byteLength;
+		h2 ^= byteLength;
+
+		h1 += h2;
+		h2 += h1;
+
+		h1 = HashKey.fmix(h1);
+		h2 = HashKey.fmix(h2);
+
+		h1 += h2;
+		h2 += h1;
+
+		return new HashKey(h1, h2);
+	}
+
+	private static long getLong(String value, int index)
+	{
+		return value.charAt(index) | ((long) value.charAt(index + 1) << 16) | ((long) value.charAt(index + 2) << 32) | ((long) value.charAt(index + 3) << 48);
+	}
+}
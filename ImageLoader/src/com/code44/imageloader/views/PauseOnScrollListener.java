@@ -0,0 +1,68 @@
+package com.code44.imageloader.views;
+
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+
+import com.code44.imageloader.ImageLoader;
+
+/**
+ * Pauses {@link ImageLoader} while list is flinging and resumes it when list stops. Images that are in memory cache are still shown while paused.
+ * 
+ * @author Mantas Varnagiris
+ */
+public class PauseOnScrollListener implements OnScrollListener
+{
+	protected final ImageLoader			imageLoader;
+	protected final boolean				pauseOnTouchScroll;
+	protected final OnScrollListener	listener;
+
+	/**
+	 * @param imageLoader
+	 *            Loader to pause.
+	 * @param pauseOnTouchScroll
+	 *            If {@code true}, loader is paused while user is dragging the list as well.
+	 * @param listener
+	 *            Listener that will receive all scroll events. Can be {@code null}.
+	 */
+	public PauseOnScrollListener(ImageLoader imageLoader, boolean pauseOnTouchScroll, OnScrollListener listener)
+	{
+		this.imageLoader = imageLoader;
+		this.pauseOnTouchScroll = pauseOnTouchScroll;
+		this.listener = listener;
+	}
+
+	// OnScrollListener
+	// ------------------------------------------------------------------------------------------------------------------------------------
+
+	@Override
+	public void onScrollStateChanged(AbsListView view, int scrollState)
+	{
+		switch (scrollState)
+		{
+			case SCROLL_STATE_FLING:
+				imageLoader.pause();
+				break;
+
+			case SCROLL_STATE_TOUCH_SCROLL:
+				if (pauseOnTouchScroll)
+					imageLoader.pause();
+				else
+					imageLoader.resume();
+				break;
+
+			default:
+				imageLoader.resume();
+				break;
+		}
+
+		if (listener != null)
+			listener.onScrollStateChanged(view, scrollState);
+	}
+
+	@Override
+	public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount)
+	{
+		if (listener != null)
+			listener.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+	}
+}